@@ -0,0 +1,14 @@
+#!/bin/sh
+# Compile the sources without the IDE project and run the benchmark suite.
+# Arguments are passed to main.java.benchmark.BenchmarkRunner, e.g.
+#   ./bench.sh --sizes 10000,100000,1000000,10000000 --out baseline.csv
+#   ./bench.sh --sizes 10000,100000 --baseline baseline.csv
+set -e
+cd "$(dirname "$0")"
+
+CLASSPATH="build/classes:lib/json-simple-1.1.1.jar"
+rm -rf build/classes
+mkdir -p build/classes
+javac -d build/classes -cp lib/json-simple-1.1.1.jar $(find src/main/java -name '*.java')
+
+exec java ${JAVA_OPTS:--Xmx8g} -cp "$CLASSPATH" main.java.benchmark.BenchmarkRunner "$@"
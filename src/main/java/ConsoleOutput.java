@@ -0,0 +1,105 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffered console output for the CLI.
+ * The text of a screen is collected in one reusable StringBuilder and written with a single
+ * write when the screen is complete, that is before the next input is read. Numbers are
+ * appended directly, so the hot paths need no String.format.
+ *
+ */
+public class ConsoleOutput {
+
+    // A screen larger than this is written in parts, so huge listings do not pile up in memory
+    private static final int MAX_SCREEN_CHARS = 1 << 20;
+
+    private final OutputStream stream;
+    private final CharsetEncoder encoder;
+    private final StringBuilder screen = new StringBuilder(1 << 12);
+    private ByteBuffer bytes = ByteBuffer.allocate(1 << 12);
+
+    public ConsoleOutput(OutputStream stream) {
+        this(stream, Charset.defaultCharset());
+    }
+
+    public ConsoleOutput(OutputStream stream, Charset charset) {
+        this.stream = stream;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public ConsoleOutput append(String text) {
+        screen.append(text);
+        return this;
+    }
+
+    public ConsoleOutput append(char c) {
+        screen.append(c);
+        return this;
+    }
+
+    public ConsoleOutput append(int number) {
+        screen.append(number);
+        return this;
+    }
+
+    public ConsoleOutput append(long number) {
+        screen.append(number);
+        return this;
+    }
+
+    /**
+     * Append the given text and end the line
+     *
+     * @param text
+     * @return
+     */
+    public ConsoleOutput line(String text) {
+        screen.append(text);
+        return line();
+    }
+
+    /**
+     * End the current line
+     *
+     * @return
+     */
+    public ConsoleOutput line() {
+        screen.append('\n');
+        if (screen.length() >= MAX_SCREEN_CHARS) flush();
+        return this;
+    }
+
+    /**
+     * Write everything collected so far in one go
+     */
+    public void flush() {
+        if (screen.length() == 0) return;
+        int capacity = (int) Math.ceil(screen.length() * (double) encoder.maxBytesPerChar());
+        if (bytes.capacity() < capacity) bytes = ByteBuffer.allocate(Math.max(capacity, bytes.capacity() * 2));
+
+        bytes.clear();
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(screen), bytes, true);
+        if (!result.isUnderflow()) throw new IllegalStateException("Console output could not be encoded: " + result);
+        encoder.flush(bytes);
+        screen.setLength(0);
+
+        try {
+            stream.write(bytes.array(), 0, bytes.position());
+            stream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
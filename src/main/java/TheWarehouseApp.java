@@ -1,17 +1,29 @@
 package main.java;
 
+import main.java.data.DataFileWatcher;
+import main.java.data.RepositoryBootstrap;
+
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  *
  * @author riteshp
  */
 public class TheWarehouseApp {
     /**
-     * Execute the <i>TheWarehouseApp</i>
+     * Execute the <i>TheWarehouseApp</i>, with --watch to reload changed data files while running
      *
      * @param args
+     * @throws IOException
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // load the stock and the personnel while the user is greeted
+        RepositoryBootstrap.start();
         TheWarehouseManager theManager = new TheWarehouseManager();
+        if (Arrays.asList(args).contains("--watch")) {
+            DataFileWatcher.start(theManager::addNotice);
+        }
 
         // Welcome User
         theManager.welcomeUser();
@@ -1,12 +1,27 @@
 package main.java;
 
 
+import main.java.data.ActionJournal;
+import main.java.data.ActionRecord;
 import main.java.data.Item;
+import main.java.data.ItemMatch;
+import main.java.data.ItemPage;
+import main.java.data.OrderService;
 import main.java.data.PersonnelRepository;
+import main.java.data.RepositoryBootstrap;
+import main.java.data.StockAgeIndex;
+import main.java.data.Reservation;
+import main.java.data.StockSnapshot;
 import main.java.data.StockRepository;
+import main.java.metrics.Counter;
+import main.java.metrics.Metrics;
+import main.java.metrics.Timer;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static main.java.data.StockRepository.getItemsByWarehouse;
 
@@ -32,15 +47,32 @@ public class TheWarehouseManager {
     // To check if the user has logged in during the session
     private boolean loggedIn = false;
 
-    // To refer warehouses and categories
-    private Set<Integer> warehouses = StockRepository.getWarehouses();
-    private Set<String> categories = StockRepository.getCategories();
+    // To record all actions in the durable action journal
+    private final ActionJournal journal = ActionJournal.getDefault();
+    // To list the actions of this session when quitting, the journal is only written
+    private final List<ActionRecord> sessionActions = new ArrayList<>();
 
-    // To refer all actions during the session
-    private static List<String> SESSION_ACTIONS = new ArrayList<>();
+    // To limit the number of suggestions shown for an unknown item
+    private static final int MAX_SUGGESTIONS = 5;
+
+    // To show long listings page by page
+    private static final int PAGE_SIZE = 100;
+    // To print an item of a warehouse listing
+    private static final Function<Item, String> ITEM_LINE = item -> "- " + item.toString();
+    // To collect the output of a screen and write it in one go, before the next input is read
+    private final ConsoleOutput out = new ConsoleOutput(System.out);
+
+    // To hold messages from background threads until the next menu, so they do not interrupt a screen
+    private final Queue<String> notices = new ConcurrentLinkedQueue<>();
 
     // To refer to the items matching the current search
-    private Map<Integer, List<Item>> matchingItemsPerWarehouse = new HashMap<>(this.warehouses.size());
+    private Map<Integer, List<Item>> matchingItemsPerWarehouse = new HashMap<>();
+
+    // To measure the menu actions, including the time spent waiting for the user's answers
+    private static final Timer LIST_ITEMS_BY_WAREHOUSE = Metrics.timer("cli.listItemsByWarehouse");
+    private static final Timer SEARCH_ITEM_AND_PLACE_ORDER = Metrics.timer("cli.searchItemAndPlaceOrder");
+    private static final Timer BROWSE_BY_CATEGORY = Metrics.timer("cli.browseByCategory");
+    private static final Counter INVALID_OPTIONS = Metrics.counter("cli.invalidOption");
 
     // =====================================================================================
     // Public Member Methods
@@ -52,13 +84,25 @@ public class TheWarehouseManager {
         this.greetUser();
     }
 
+    /**
+     * Show a message before the next menu, may be called from any thread
+     * @param message, the message to show
+     */
+    public void addNotice(String message) {
+        this.notices.add(message);
+    }
+
     /** Ask for user's choice of action */
     public int getUsersChoice() {
-        System.out.println("What would you like to do?");
+        for (String notice = this.notices.poll(); notice != null; notice = this.notices.poll()) {
+            this.out.append("(").append(notice).line(")");
+        }
+        this.out.line("What would you like to do?");
         for (String option : this.userOptions) {
-            System.out.println(option);
+            this.out.line(option);
         }
-        System.out.println("Type the number of the operation:");
+        this.out.line("Type the number of the operation:");
+        this.out.flush();
         int choice;
         try {
             choice = this.reader.nextInt();
@@ -71,20 +115,31 @@ public class TheWarehouseManager {
 
     /** Initiate an action based on given option */
     public void performAction(int option) {
+        long start;
         switch (option) {
             case 1:
+                start = LIST_ITEMS_BY_WAREHOUSE.start();
+                this.awaitLoading(RepositoryBootstrap.stock(), "stock");
                 this.listItemsByWarehouse();
+                LIST_ITEMS_BY_WAREHOUSE.stop(start);
                 break;
             case 2:
+                start = SEARCH_ITEM_AND_PLACE_ORDER.start();
+                this.awaitLoading(RepositoryBootstrap.stock(), "stock");
                 this.searchItemAndPlaceOrder();
+                SEARCH_ITEM_AND_PLACE_ORDER.stop(start);
                 break;
             case 3:
+                start = BROWSE_BY_CATEGORY.start();
+                this.awaitLoading(RepositoryBootstrap.stock(), "stock");
                 this.browseByCategory();
+                BROWSE_BY_CATEGORY.stop(start);
                 break;
             case 4:
                 this.quit();
             default:
-                System.out.println("The option you entered is not valid! Please try again.");
+                INVALID_OPTIONS.increment();
+                this.out.line("The option you entered is not valid! Please try again.");
         }
     }
 
@@ -94,14 +149,16 @@ public class TheWarehouseManager {
      * @return action
      */
    public boolean confirm(String message) {
-       System.out.printf("%s (y/n)\n", message);
+       this.out.append(message).line(" (y/n)");
+       this.out.flush();
        return (this.reader.nextLine().toLowerCase().startsWith("y"));
    }
 
     /** End the application */
    public void quit() {
-        System.out.printf("\nThank you for your visit, %s!\n", this.userName);
+        this.out.append("\nThank you for your visit, ").append(this.userName).line("!");
         listSessionActions();
+        this.out.flush();
         System.exit(0);
    }
 
@@ -114,25 +171,28 @@ public class TheWarehouseManager {
 
     /** Get user's name via CLI */
    private void seekUserName() {
-        System.out.println("Please enter your user name:");
+        this.out.line("Please enter your user name:");
+        this.out.flush();
         this.userName = this.reader.nextLine();
    }
 
     /** Get user's password via CLI */
     private void askPassword() {
-        System.out.println("Please enter your password:");
+        this.out.line("Please enter your password:");
+        this.out.flush();
         this.password = this.reader.nextLine();
     }
 
     /** log in the current user */
     private void logIn() {
         if (this.loggedIn) return;
-        System.out.println("You need to log in for this action.");
+        this.out.line("You need to log in for this action.");
         while (!this.loggedIn) {
             this.askPassword();
+            this.awaitLoading(RepositoryBootstrap.personnel(), "personnel");
 
             if (PersonnelRepository.isUserValid(this.userName, this.password)) {
-                System.out.println("You logged in successfully");
+                this.out.line("You logged in successfully");
                 this.loggedIn = true;
             } else if (this.confirm("This was not successful. Do you want to try again?")) {
                     this.seekUserName();
@@ -140,71 +200,111 @@ public class TheWarehouseManager {
             }
     }
 
+    /** Wait for data that is still loading in the background, telling the user why */
+    private void awaitLoading(CompletableFuture<Void> loading, String data) {
+        if (loading.isDone()) return;
+        this.out.append("Loading the ").append(data).line(", one moment please...");
+        this.out.flush();
+        loading.join();
+    }
+
     /** Print a welcome message with the given user's name */
     private void greetUser() {
-        System.out.printf("Hello %s!\n", this.userName);
+        this.out.append("Hello ").append(this.userName).line("!");
     }
 
-    /** log an action into the list of session actions */
-    private void logSessionAction(String action) {
-        SESSION_ACTIONS.add(action);
+    /** log an action of this session, and into the action journal */
+    private void logSessionAction(ActionRecord.Type type, String item, int warehouse, int amount) {
+        ActionRecord action = new ActionRecord(this.userName, System.currentTimeMillis(), type, item, warehouse, amount);
+        this.sessionActions.add(action);
+        if (this.journal != null) this.journal.append(action);
     }
 
     /** list all actions of this session */
     private void listSessionActions() {
-        if (SESSION_ACTIONS.size() > 0) {
-            System.out.println("In this session you have: ");
+        if (this.sessionActions.size() > 0) {
+            this.out.line("In this session you have: ");
             int actionNumber = 1;
-            for (String action : SESSION_ACTIONS) {
-                System.out.printf("%d. %s \n", actionNumber, action);
+            for (ActionRecord action : this.sessionActions) {
+                this.out.append(actionNumber).append(". ").append(action.toString()).line(" ");
                 actionNumber++;
             }
-        } else System.out.println("In this session you have not done anything.");
+        } else this.out.line("In this session you have not done anything.");
     }
 
 
     // Methods for menu option: list items by warehouse
     // =====================================================================================
     private void listItemsByWarehouse() {
-        Map<Integer, Integer> totalItems = new HashMap<>(this.warehouses.size());
-
-        for (int warehouse : this.warehouses) {
-                System.out.println("\nItems in Warehouse " + warehouse);
-                List<Item> warehouseItems = new ArrayList<>(StockRepository.getItemsByWarehouse(warehouse));
-
-                listItems(warehouseItems);
-
-                totalItems.put(warehouse, warehouseItems.size());
+        // one snapshot for the whole listing, the stock may be reloaded meanwhile
+        StockSnapshot stock = StockRepository.snapshot();
+        List<Integer> warehouses = new ArrayList<>(stock.getWarehouses());
+        // the first pages of all warehouses are formatted in parallel, then printed in order
+        List<ItemPage> pages = new ArrayList<>();
+        for (int warehouse : warehouses) {
+            pages.add(ItemPage.of(stock.getItemsByWarehouse(warehouse), 0, PAGE_SIZE));
+        }
+        List<String> firstPages = pages.parallelStream().map(page -> formatPage(page, ITEM_LINE)).collect(Collectors.toList());
+        for (int i = 0; i < warehouses.size(); i++) {
+                this.out.append("\nItems in Warehouse ").append(warehouses.get(i)).line();
+                printPages(pages.get(i), firstPages.get(i), ITEM_LINE);
         }
 
-        listTotalItemsPerWarehouse(totalItems);
+        listTotalItemsPerWarehouse(stock);
 
-        logSessionAction("Listed " + getTotalListedItems() + " items.");
+        logSessionAction(ActionRecord.Type.LISTED, null, 0, stock.size());
     }
 
     /**
-     * prints the list of all items in a given warehouse
-     * @param warehouseItems, List of Items
+     * Print a listing page by page, asking before each further page
+     * @param page, the first page
+     * @param format, the line to print for an item
      */
-    private void listItems(List<Item> warehouseItems) {
-            for (Item item : warehouseItems) {
-                System.out.printf("- %s\n", item.toString());
-            }
+    private void printPages(ItemPage page, Function<Item, String> format) {
+        printPages(page, formatPage(page, format), format);
     }
 
     /**
-     * prints the total amounts of items per warehouse
-     * @param totalItemsPerWarehouse, Map of Integer (Warehouse number) and Integer (Items in the Warehouse)
+     * Print a listing page by page, asking before each further page
+     * @param page, the first page
+     * @param lines, the first page already formatted
+     * @param format, the line to print for an item
      */
-    private void listTotalItemsPerWarehouse(Map<Integer, Integer> totalItemsPerWarehouse) {
-        for (Map.Entry<Integer, Integer> entry : totalItemsPerWarehouse.entrySet()) {
-            System.out.printf("Total items in warehouse %d: %s\n", entry.getKey(), entry.getValue());
+    private void printPages(ItemPage page, String lines, Function<Item, String> format) {
+        while (true) {
+            this.out.append(lines);
+
+            if (!page.hasNext()) return;
+            this.out.append(page.getEnd()).append(" of ").append(page.getTotal()).append(" items shown.");
+            if (!this.confirm(" Show more?")) return;
+            page = page.next();
+            lines = formatPage(page, format);
         }
     }
 
-    /** return the total amount of items in all warehouses */
-    private int getTotalListedItems() {
-        return StockRepository.getAllItems().size();
+    /**
+     * Format the items of a page, one line each
+     * @param page, the page
+     * @param format, the line to print for an item
+     * @return the lines
+     */
+    private static String formatPage(ItemPage page, Function<Item, String> format) {
+        StringBuilder lines = new StringBuilder();
+        for (Item item : page) {
+            lines.append(format.apply(item)).append('\n');
+        }
+        return lines.toString();
+    }
+
+    /**
+     * prints the total amounts of items per warehouse
+     * @param stock, the snapshot the items were listed from
+     */
+    private void listTotalItemsPerWarehouse(StockSnapshot stock) {
+        for (int warehouse : new TreeSet<>(stock.getWarehouses())) {
+            this.out.append("Total items in warehouse ").append(warehouse).append(": ")
+                    .append(stock.getItemCountByWarehouse(warehouse)).line();
+        }
     }
 
     // Methods for menu option: Search item and place order
@@ -215,14 +315,15 @@ public class TheWarehouseManager {
         this.getMatchingItemLists(itemName);
         int totalAmount = this.getAvailableAmount();
 
-        System.out.println("Amount available: " + totalAmount);
+        this.out.append("Amount available: ").append(totalAmount).line();
 
         if (totalAmount == 0) {
             this.printLocation("Not in stock");
+            if (!itemName.trim().isEmpty()) this.printSuggestions(itemName);
         } else {
             this.listAllLocations();
             if (this.matchingItemsPerWarehouse.size() > 1) {
-                this.printMaximumAvailability();
+                this.printMaximumAvailability(itemName);
             }
 
             if (this.confirm("Would you like to order this item?")) {
@@ -231,7 +332,7 @@ public class TheWarehouseManager {
             }
         }
 
-        logSessionAction("Searched " + getAppropriateIndefiniteArticle(itemName) + " " + itemName + ".");
+        logSessionAction(ActionRecord.Type.SEARCHED, itemName, 0, 0);
     }
 
     /**
@@ -240,7 +341,8 @@ public class TheWarehouseManager {
      * @return String itemName
      */
     private String askItemToOrder() {
-        System.out.println("What is the name of the item?");
+        this.out.line("What is the name of the item?");
+        this.out.flush();
         return this.reader.nextLine();
     }
 
@@ -264,30 +366,46 @@ public class TheWarehouseManager {
      * @return allAmounts, the matching items per warehouse
      */
     private void getMatchingItemLists(String itemName) {
-        for (int warehouse : this.warehouses) {
-            List<Item> matchingItems = this.find(itemName, warehouse);
-            if (matchingItems.size() > 0) {
-                this.matchingItemsPerWarehouse.put(warehouse, matchingItems);
-            }
-        }
+        this.matchingItemsPerWarehouse.clear();
+        this.matchingItemsPerWarehouse.putAll(StockRepository.getItemsByName(itemName));
     }
 
     /**
-     * Find the item in a given warehouse
-     *
-     * @param item the item
-     * @param warehouse the warehouse
-     * @return matchingItems, a List of the corresponding items found in the warehouse
+     * Print the names of items similar to the given one
+     * @param itemName, String, the name the user searched for
      */
-    private List<Item> find(String item, int warehouse) {
-        List<Item> warehouseItems = new ArrayList<>(StockRepository.getItemsByWarehouse(warehouse));
-        List<Item> matchingItems = new ArrayList<>();
+    private void printSuggestions(String itemName) {
+        List<String> suggestions = StockRepository.getItemNamesStartingWith(itemName);
+        if (suggestions.isEmpty()) suggestions = StockRepository.getItemNamesContaining(itemName);
+        if (suggestions.isEmpty()) {
+            this.printSimilarItems(itemName);
+            return;
+        }
 
-        for (Item warehouseItem : warehouseItems) {
-            if (warehouseItem.toString().equalsIgnoreCase(item)) matchingItems.add(warehouseItem);
+        this.out.line("Did you mean:");
+        for (String suggestion : suggestions.subList(0, Math.min(MAX_SUGGESTIONS, suggestions.size()))) {
+            this.out.append("- ").line(suggestion);
         }
+    }
 
-        return matchingItems;
+    /**
+     * Print the items with a name close to the given one, for names with typos, and where they are in stock
+     * @param itemName, String, the name the user searched for
+     */
+    private void printSimilarItems(String itemName) {
+        List<ItemMatch> matches = StockRepository.findSimilarItems(itemName, MAX_SUGGESTIONS);
+        if (matches.isEmpty()) return;
+
+        this.out.line("Did you mean:");
+        for (ItemMatch match : matches) {
+            this.out.append("- ").append(match.getName()).append(" (").append(match.getAmount()).append(" in stock");
+            String separator = ": ";
+            for (Map.Entry<Integer, Integer> warehouse : match.getAmountPerWarehouse().entrySet()) {
+                this.out.append(separator).append(warehouse.getValue()).append(" in Warehouse ").append(warehouse.getKey());
+                separator = ", ";
+            }
+            this.out.line(")");
+        }
     }
 
     /** Print the location of an item without listing the available items
@@ -295,16 +413,18 @@ public class TheWarehouseManager {
      * @param location the location of the items
      */
     private void printLocation(String location) {
-        System.out.println("Location: " + location);
+        this.out.append("Location: ").line(location);
     }
 
     /** Print the location of an item and lists the corresponding items and their warehouse */
     private void listAllLocations() {
-        System.out.println("Location: ");
+        this.out.line("Location: ");
 
+        long now = System.currentTimeMillis();
         for (List<Item> warehouseItems : matchingItemsPerWarehouse.values()) {
             for (Item item : warehouseItems) {
-                System.out.printf("- Warehouse %d (in stock for %d days)\n", item.getWarehouse(), this.calculateNumberOfDaysInStock(item));
+                this.out.append("- Warehouse ").append(item.getWarehouse())
+                        .append(" (in stock for ").append(this.calculateNumberOfDaysInStock(item, now)).line(" days)");
             }
         }
     }
@@ -312,39 +432,51 @@ public class TheWarehouseManager {
     /**
      * Calculate the number of days a given item has been in stock
      * @param item Item
+     * @param now the current time in milliseconds, taken once for a whole listing
      * @return the number of days in stock, long
      */
-    private long calculateNumberOfDaysInStock(Item item) {
-        Date today = new Date();
-        return TimeUnit.DAYS.convert(today.getTime() - item.getDateOfStock().getTime(), TimeUnit.MILLISECONDS);
+    private long calculateNumberOfDaysInStock(Item item, long now) {
+        return StockAgeIndex.daysInStock(item, now);
     }
 
     /**
      * Print the location with the maximum availability of an item
+     * @param itemName, String, the name of the item
      */
-    private void printMaximumAvailability() {
+    private void printMaximumAvailability(String itemName) {
         int maxSize = 0;
         int warehouse = 0;
 
-        for (Map.Entry<Integer, List<Item>> warehouseItems : matchingItemsPerWarehouse.entrySet()) {
-            if (warehouseItems.getValue().size() > maxSize) {
-                maxSize = warehouseItems.getValue().size();
-                warehouse = warehouseItems.getKey();
+        // counted by every warehouse in parallel; the lowest warehouse ID on a tie
+        for (Map.Entry<Integer, Integer> warehouseCount : new TreeMap<>(StockRepository.getItemCountsByName(itemName)).entrySet()) {
+            if (warehouseCount.getValue() > maxSize) {
+                maxSize = warehouseCount.getValue();
+                warehouse = warehouseCount.getKey();
             }
         }
 
-        System.out.printf("Maximum availability: %d in Warehouse %d\n", maxSize, warehouse);
+        this.out.append("Maximum availability: ").append(maxSize).append(" in Warehouse ").append(warehouse).line();
     }
 
 
     /** Ask order amount and confirm order */
     private void askAmountAndConfirmOrder(int availableAmount, String item) {
-        System.out.println("How many would you like to order?");
+        this.out.line("How many would you like to order?");
+        this.out.flush();
         int order = getOrderAmount(availableAmount);
         if (order > 0) {
-            System.out.printf("Your order of %d %s is confirmed.\n", order, (order == 1) ? item : item+"s");
+            Reservation reservation = OrderService.placeOrder(item, order);
+            if (reservation == null) {
+                this.out.line("Sorry, this amount is no longer in stock. No order has been placed.");
+                return;
+            }
+            this.out.append("Your order of ").append(order).append(" ").append((order == 1) ? item : item+"s").line(" is confirmed.");
+            for (Map.Entry<Integer, Integer> entry : reservation.getAmountPerWarehouse().entrySet()) {
+                this.out.append("- ").append(entry.getValue()).append(" from Warehouse ").append(entry.getKey()).line();
+                logSessionAction(ActionRecord.Type.ORDERED, item, entry.getKey(), entry.getValue());
+            }
         } else {
-            System.out.println("No order has been placed.");
+            this.out.line("No order has been placed.");
         }
     }
 
@@ -366,23 +498,13 @@ public class TheWarehouseManager {
         }
 
         if (desiredAmount > availableAmount) {
-            System.out.println("There are not this many available. The maximum amount that can be ordered is " + availableAmount);
+            this.out.append("There are not this many available. The maximum amount that can be ordered is ").append(availableAmount).line();
             return (this.confirm("Would you like to order this amount?")) ? availableAmount : -1;
         }
 
         return desiredAmount;
     }
 
-    /**
-     * Return the appropriate indefinite article for a given String, depending on whether it starts with a vowel
-     * @param word String
-     * @return the appropriate article, String
-     */
-    private String getAppropriateIndefiniteArticle(String word) {
-        String vowels = "aeiou";
-        return (vowels.indexOf(Character.toLowerCase(word.charAt(0))) != -1) ? "an" : "a";
-    }
-
     // Methods for menu option: browse by category
     // =====================================================================================
     private void browseByCategory() {
@@ -393,9 +515,9 @@ public class TheWarehouseManager {
         if (categoryNumber > 0 && categoryNumber <= categoryList.size()) {
             String category = categoryList.get(categoryNumber);
             this.printCategoryItems(category);
-            logSessionAction("Browsed the category " + category  + ".");
+            logSessionAction(ActionRecord.Type.BROWSED, category, 0, 0);
         } else {
-            System.out.println("This is not a valid category.");
+            this.out.line("This is not a valid category.");
         }
     }
 
@@ -407,7 +529,7 @@ public class TheWarehouseManager {
         Map<Integer, String> categoryList = new HashMap<>();
         int count = 1;
 
-        for (String category : this.categories) {
+        for (String category : StockRepository.getCategories()) {
             categoryList.put(count, category);
             count++;
         }
@@ -424,7 +546,8 @@ public class TheWarehouseManager {
             int categoryNumber = entry.getKey();
             String category = entry.getValue();
 
-            System.out.printf("%d. %s (%d)\n", categoryNumber, category, getAmountPerCategory(category));
+            this.out.append(categoryNumber).append(". ").append(category)
+                    .append(" (").append(getAmountPerCategory(category)).line(")");
         }
     }
 
@@ -434,7 +557,7 @@ public class TheWarehouseManager {
      * @return int, amount of items
      */
     private int getAmountPerCategory(String category) {
-        return StockRepository.getItemsByCategory(category).size();
+        return StockRepository.getItemCountByCategory(category);
     }
 
     /**
@@ -442,7 +565,8 @@ public class TheWarehouseManager {
      * @return int, the chosen category
      */
     private int getCategoryChoice() {
-        System.out.println("Type the number of the category to browse:");
+        this.out.line("Type the number of the category to browse:");
+        this.out.flush();
         int choice;
         try {
             choice = this.reader.nextInt();
@@ -458,10 +582,9 @@ public class TheWarehouseManager {
      * @param category, String, the name of the category
      */
     private void printCategoryItems(String category) {
-        System.out.printf("List of %ss available:\n", category.toLowerCase());
+        this.out.append("List of ").append(category.toLowerCase()).line("s available:");
 
-        for (Item item : StockRepository.getItemsByCategory(category)) {
-            System.out.printf("%s %s, Warehouse %d\n", item.getState(), item.getCategory(), item.getWarehouse());
-        }
+        ItemPage categoryItems = StockRepository.getItemPageByCategory(category, 0, PAGE_SIZE);
+        printPages(categoryItems, item -> item.getState() + " " + item.getCategory() + ", Warehouse " + item.getWarehouse());
     }
 }
@@ -0,0 +1,238 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.PasswordHash;
+import main.java.data.Person;
+import main.java.data.PersonnelRepository;
+import main.java.data.StockJsonReader;
+import main.java.data.StockReport;
+import main.java.data.StockRepository;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmark suite for the repository and manager hot paths.
+ * Every benchmark runs against synthetic stock of each requested size, with warmup
+ * iterations before the measured ones. Results can be written to a CSV file and compared
+ * with an earlier run.
+ *
+ * Usage: BenchmarkRunner [--sizes 10000,100000,...] [--warmup n] [--iterations n] [--time ms]
+ *                        [--filter text] [--warehouses n] [--out results.csv] [--baseline results.csv]
+ *
+ */
+public class BenchmarkRunner {
+
+    /**
+     * One benchmarked operation. The returned value is consumed so the JIT cannot drop the work.
+     */
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    private static final String SEARCHED_ITEM = "High quality USB hub";
+    private static final String MISTYPED_ITEM = "Hihg quality USB hb";
+    private static final int USERS = 10_000;
+    private static final int AGED_DAYS = 365;
+
+    // consumes benchmark results
+    static volatile long sink;
+
+    private final Map<String, Operation> benchmarks = new LinkedHashMap<String, Operation>();
+    private final List<String> results = new ArrayList<String>();
+    private int warmup = 3;
+    private int iterations = 5;
+    private long iterationNanos = 200_000_000L;
+
+    private File stockFile;
+
+    public static void main(String[] args) throws Exception {
+        SyntheticStock.disablePersistence();
+        Map<String, String> options = parseOptions(args);
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        runner.iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        runner.iterationNanos = Long.parseLong(options.getOrDefault("time", "200")) * 1_000_000L;
+        int warehouses = Integer.parseInt(options.getOrDefault("warehouses", "4"));
+        String filter = options.getOrDefault("filter", "");
+
+        Map<String, Double> baseline = options.containsKey("baseline") ? readBaseline(options.get("baseline")) : null;
+
+        addUsers();
+        runner.register();
+        System.out.printf("%-10s %-28s %16s %12s %10s\n", "size", "benchmark", "ns/op", "error", "baseline");
+        for (String size : options.getOrDefault("sizes", "10000,100000,1000000").split(",")) {
+            runner.runSize(Integer.parseInt(size.trim()), warehouses, filter, baseline);
+        }
+
+        if (options.containsKey("out")) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(options.get("out")))) {
+                writer.println("size,benchmark,ns_per_op,error");
+                for (String result : runner.results) {
+                    writer.println(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * The benchmarked operations
+     */
+    private void register() {
+        benchmarks.put("load", () -> StockJsonReader.readItems(stockFile.getPath()).size());
+        benchmarks.put("getItemsByWarehouse", () -> {
+            long total = 0;
+            for (int warehouse : StockRepository.getWarehouses()) {
+                total += StockRepository.getItemsByWarehouse(warehouse).size();
+            }
+            return total;
+        });
+        benchmarks.put("getItemsByCategory", () -> StockRepository.getItemsByCategory("usb hub").size());
+        benchmarks.put("getWarehouses", () -> StockRepository.getWarehouses().size());
+        benchmarks.put("getCategories", () -> StockRepository.getCategories().size());
+        benchmarks.put("search", () -> {
+            long total = 0;
+            for (List<Item> items : StockRepository.getItemsByName(SEARCHED_ITEM).values()) {
+                total += items.size();
+            }
+            return total;
+        });
+        benchmarks.put("search with typo", () -> StockRepository.findSimilarItems(MISTYPED_ITEM, 5).size());
+        benchmarks.put("search (full scan)", () -> {
+            // the search as TheWarehouseManager.find did it before the name index
+            long total = 0;
+            for (int warehouse : StockRepository.getWarehouses()) {
+                for (Item item : new ArrayList<Item>(StockRepository.getItemsByWarehouse(warehouse))) {
+                    if (item.toString().equalsIgnoreCase(SEARCHED_ITEM)) total++;
+                }
+            }
+            return total;
+        });
+        benchmarks.put("report", () -> StockReport.current().getTotal());
+        benchmarks.put("isUserValid", () -> PersonnelRepository.isUserValid("user" + (USERS - 1), "secret") ? 1 : 0);
+        benchmarks.put("itemsInStockFor", () -> StockRepository.getItemsInStockForAtLeast(AGED_DAYS).size());
+        benchmarks.put("itemsInStockFor (full scan)", () -> {
+            long now = System.currentTimeMillis();
+            long total = 0;
+            for (Item item : StockRepository.getAllItems()) {
+                if (TimeUnit.DAYS.convert(now - item.getDateOfStock().getTime(), TimeUnit.MILLISECONDS) >= AGED_DAYS) total++;
+            }
+            return total;
+        });
+        benchmarks.put("countPerCategory", () -> {
+            long total = 0;
+            for (String category : StockRepository.getCategories()) {
+                total += StockRepository.getItemCountByCategory(category);
+            }
+            return total;
+        });
+    }
+
+    private void runSize(int size, int warehouses, String filter, Map<String, Double> baseline) throws Exception {
+        List<Item> items = SyntheticStock.items(size, warehouses);
+        StockRepository.replaceAllItems(items);
+        items = null;
+
+        stockFile = null;
+        for (Map.Entry<String, Operation> benchmark : benchmarks.entrySet()) {
+            String name = benchmark.getKey();
+            if (!name.toLowerCase(Locale.ROOT).contains(filter.toLowerCase(Locale.ROOT))) continue;
+            if (name.equals("load") && stockFile == null) {
+                stockFile = File.createTempFile("stock-" + size, ".json");
+                stockFile.deleteOnExit();
+                SyntheticStock.writeJson(stockFile.getPath(), size, warehouses);
+            }
+
+            double[] score = measure(benchmark.getValue());
+            String previous = "";
+            if (baseline != null && baseline.containsKey(size + "," + name)) {
+                double change = (score[0] - baseline.get(size + "," + name)) / baseline.get(size + "," + name);
+                previous = String.format("%+.1f%%", change * 100);
+            }
+            System.out.printf("%-10d %-28s %16.1f %12.1f %10s\n", size, name, score[0], score[1], previous);
+            results.add(String.format(Locale.ROOT, "%d,%s,%.1f,%.1f", size, name, score[0], score[1]));
+        }
+        if (stockFile != null && !stockFile.delete()) stockFile.deleteOnExit();
+    }
+
+    /**
+     * Run the warmup and measured iterations
+     *
+     * @return mean and standard deviation of the nanoseconds per operation
+     */
+    private double[] measure(Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration(operation);
+        }
+        double[] samples = new double[iterations];
+        double sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            samples[i] = iteration(operation);
+            sum += samples[i];
+        }
+        double mean = sum / iterations;
+        double squares = 0;
+        for (double sample : samples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        return new double[] {mean, iterations > 1 ? Math.sqrt(squares / (iterations - 1)) : 0};
+    }
+
+    private double iteration(Operation operation) throws Exception {
+        long operations = 0;
+        long consumed = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            consumed += operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink = consumed;
+        return (double) elapsed / operations;
+    }
+
+    private static void addUsers() {
+        // hashing is deliberately slow, the synthetic users share one hash
+        PasswordHash hash = PasswordHash.of("secret");
+        for (int i = 0; i < USERS; i++) {
+            Person person = new Person();
+            person.setUserName("user" + i);
+            person.setPasswordHash(hash);
+            PersonnelRepository.addPerson(person);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unknown argument " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static Map<String, Double> readBaseline(String path) throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                baseline.put(fields[0] + "," + fields[1], Double.parseDouble(fields[2]));
+            }
+        }
+        return baseline;
+    }
+}
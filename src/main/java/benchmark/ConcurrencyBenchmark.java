@@ -0,0 +1,71 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.StockRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures repository throughput with 1 to 64 threads running a mix of searches,
+ * warehouse listings and writes (add, transfer and remove of an item).
+ * Usage: ConcurrencyBenchmark [items] [write percentage] [seconds per step]
+ *
+ */
+public class ConcurrencyBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int writePercentage = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 2) * 1000L;
+
+        StockRepository.replaceAllItems(SyntheticStock.items(size, 50));
+        System.out.printf("%,d items, %d%% writes\n", size, writePercentage);
+        System.out.printf("%8s %14s %14s %14s\n", "threads", "reads/s", "writes/s", "total/s");
+
+        for (int threads : THREADS) {
+            LongAdder reads = new LongAdder();
+            LongAdder writes = new LongAdder();
+            CountDownLatch done = new CountDownLatch(threads);
+            long deadline = System.nanoTime() + millis * 1_000_000L;
+
+            List<Thread> workers = new ArrayList<Thread>();
+            for (int t = 0; t < threads; t++) {
+                SyntheticStock stock = new SyntheticStock(t, 50);
+                Thread worker = new Thread(() -> {
+                    long operation = 0;
+                    long consumed = 0;
+                    while (System.nanoTime() < deadline) {
+                        if (operation++ % 100 < writePercentage) {
+                            Item item = stock.nextItem();
+                            StockRepository.addItem(item);
+                            Item moved = StockRepository.transferItem(item, 1 + (item.getWarehouse() % 50));
+                            StockRepository.removeItem(moved);
+                            writes.increment();
+                        } else {
+                            consumed += StockRepository.getItemsByName("High quality USB hub").size();
+                            consumed += StockRepository.getItemCountByWarehouse(1 + (int) (operation % 50));
+                            reads.increment();
+                        }
+                    }
+                    BenchmarkRunner.sink = consumed;
+                    done.countDown();
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            done.await();
+
+            double seconds = millis / 1000.0;
+            System.out.printf("%8d %,14.0f %,14.0f %,14.0f\n", threads,
+                    reads.sum() / seconds, writes.sum() / seconds, (reads.sum() + writes.sum()) / seconds);
+        }
+
+        if (StockRepository.getAllItems().size() != size) throw new IllegalStateException("Stock size changed");
+    }
+}
@@ -0,0 +1,68 @@
+package main.java.benchmark;
+
+import main.java.ConsoleOutput;
+import main.java.data.Item;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Dumps a full warehouse the way the CLI used to, with one printf per item on an auto-flushing
+ * PrintStream like System.out, and through ConsoleOutput, once formatting every line and once with
+ * the cached display names. The output goes to a temporary file, so every write reaches the OS.
+ * Usage: ConsoleOutputBenchmark [items] [iterations]
+ *
+ */
+public class ConsoleOutputBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Item> warehouse = SyntheticStock.items(size, 1);
+        File file = File.createTempFile("console", ".txt");
+        file.deleteOnExit();
+        System.out.printf("%,d items in one warehouse\n", size);
+
+        for (int i = 0; i < iterations; i++) {
+            long printf;
+            try (PrintStream stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 8192), true)) {
+                long start = System.nanoTime();
+                for (Item item : warehouse) {
+                    stream.printf("- %s\n", String.format("%s %s", item.getState(), item.getCategory().toLowerCase()));
+                }
+                printf = System.nanoTime() - start;
+            }
+
+            long formatted;
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                ConsoleOutput out = new ConsoleOutput(stream);
+                long start = System.nanoTime();
+                for (Item item : warehouse) {
+                    out.append("- ").line(String.format("%s %s", item.getState(), item.getCategory().toLowerCase()));
+                }
+                out.flush();
+                formatted = System.nanoTime() - start;
+            }
+
+            long cached;
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                ConsoleOutput out = new ConsoleOutput(stream);
+                long start = System.nanoTime();
+                for (Item item : warehouse) {
+                    out.append("- ").line(item.toString());
+                }
+                out.flush();
+                cached = System.nanoTime() - start;
+            }
+
+            System.out.printf("printf per line %,6d ms | buffered, formatted %,6d ms | buffered, cached names %,6d ms\n",
+                    printf / 1_000_000, formatted / 1_000_000, cached / 1_000_000);
+        }
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
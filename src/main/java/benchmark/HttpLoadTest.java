@@ -0,0 +1,93 @@
+package main.java.benchmark;
+
+import main.java.server.WarehouseHttpServer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test for the HTTP front-end: many concurrent clients sending a mix of searches and
+ * listings, reporting throughput and p50/p99/max latency.
+ * Without a URL an in-process server on a free port is tested.
+ * Usage: HttpLoadTest [clients] [requests per client] [base URL]
+ *
+ */
+public class HttpLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        WarehouseHttpServer server = null;
+        String baseUrl;
+        if (args.length > 2) {
+            baseUrl = args[2];
+        } else {
+            server = new WarehouseHttpServer(0);
+            server.start();
+            baseUrl = "http://localhost:" + server.getPort();
+        }
+
+        String[] paths = {
+                "/search?name=" + URLEncoder.encode("High quality USB hub", StandardCharsets.UTF_8),
+                "/warehouses",
+                "/categories",
+                "/warehouses/items?warehouse=1&limit=20",
+                "/search?name=" + URLEncoder.encode("Red GPS", StandardCharsets.UTF_8)
+        };
+
+        ExecutorService clientThreads = Executors.newFixedThreadPool(Math.min(clients, 256));
+        HttpClient client = HttpClient.newBuilder().executor(clientThreads).connectTimeout(Duration.ofSeconds(10)).build();
+        long[] latencies = new long[clients * requests];
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> sessions = new ArrayList<CompletableFuture<Void>>();
+        for (int c = 0; c < clients; c++) {
+            int first = c;
+            CompletableFuture<Void> session = CompletableFuture.completedFuture(null);
+            for (int r = 0; r < requests; r++) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + paths[(first + r) % paths.length])).build();
+                session = session.thenCompose(ignored -> {
+                    long sent = System.nanoTime();
+                    return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((response, failure) -> {
+                        if (failure != null || response.statusCode() != 200) errors.incrementAndGet();
+                        latencies[recorded.getAndIncrement()] = System.nanoTime() - sent;
+                        return null;
+                    });
+                });
+            }
+            sessions.add(session);
+        }
+        CompletableFuture.allOf(sessions.toArray(new CompletableFuture<?>[0])).join();
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = Arrays.copyOf(latencies, recorded.get());
+        Arrays.sort(sorted);
+        System.out.printf("%d clients x %d requests: %,.0f requests/s, %d errors\n",
+                clients, requests, sorted.length / (elapsed / 1e9), errors.get());
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms\n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+
+        clientThreads.shutdown();
+        if (server != null) server.stop();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,83 @@
+package main.java.benchmark;
+
+import main.java.data.ImportResult;
+import main.java.data.Item;
+import main.java.data.StockImporter;
+import main.java.data.StockJsonReader;
+import main.java.data.StockRepository;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures bulk import throughput in items per second: adding items one by one, importing them
+ * from memory, and importing CSV and JSON lines files. Every run starts from an empty stock.
+ * Usage: ImportBenchmark [items] [iterations]
+ *
+ */
+public class ImportBenchmark {
+
+    // adding one by one copies a whole warehouse per item, so it only gets a part of the items
+    private static final int ONE_BY_ONE_ITEMS = 20_000;
+
+    public static void main(String[] args) throws IOException {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        List<Item> items = SyntheticStock.items(size, 4);
+        File csv = File.createTempFile("import", ".csv");
+        File jsonLines = File.createTempFile("import", ".jsonl");
+        csv.deleteOnExit();
+        jsonLines.deleteOnExit();
+        write(items, csv, false);
+        write(items, jsonLines, true);
+        System.out.printf("%,d items, %d processors\n", size, Runtime.getRuntime().availableProcessors());
+
+        for (int i = 0; i < iterations; i++) {
+            StockRepository.replaceAllItems(Collections.<Item>emptyList());
+            List<Item> few = items.subList(0, Math.min(ONE_BY_ONE_ITEMS, size));
+            long start = System.nanoTime();
+            for (Item item : few) {
+                StockRepository.addItem(item);
+            }
+            double oneByOne = few.size() * 1e9 / (System.nanoTime() - start);
+
+            StockRepository.replaceAllItems(Collections.<Item>emptyList());
+            ImportResult memory = StockImporter.importItems(items, StockImporter.DEFAULT_BATCH_SIZE);
+
+            StockRepository.replaceAllItems(Collections.<Item>emptyList());
+            ImportResult fromCsv = StockImporter.importFile(csv.getPath());
+
+            StockRepository.replaceAllItems(Collections.<Item>emptyList());
+            ImportResult fromJsonLines = StockImporter.importFile(jsonLines.getPath());
+            if (StockRepository.snapshot().size() != size) throw new IllegalStateException("Items were lost");
+
+            System.out.printf("one by one %,10.0f/s | from memory %,10.0f/s | CSV %,10.0f/s | JSON lines %,10.0f/s\n",
+                    oneByOne, memory.getItemsPerSecond(), fromCsv.getItemsPerSecond(), fromJsonLines.getItemsPerSecond());
+        }
+    }
+
+    private static void write(List<Item> items, File file, boolean json) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            if (!json) writer.write("state,category,warehouse,date_of_stock\n");
+            for (Item item : items) {
+                String date = StockJsonReader.DATE_FORMAT.format(item.getDateOfStock().toInstant().atZone(ZoneId.systemDefault()));
+                if (json) {
+                    writer.write("{\"state\": \"" + item.getState() + "\", \"category\": \"" + item.getCategory()
+                            + "\", \"warehouse\": " + item.getWarehouse() + ", \"date_of_stock\": \"" + date + "\"}\n");
+                } else {
+                    writer.write(item.getState() + "," + item.getCategory() + "," + item.getWarehouse() + "," + date + "\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package main.java.benchmark;
+
+import main.java.data.ActionJournal;
+import main.java.data.ActionRecord;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the action journal: append cost on the caller threads, time until everything
+ * is durable, and the rate at which histories are read back.
+ * Usage: JournalBenchmark [records] [threads]
+ *
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        File directory = Files.createTempDirectory("journal").toFile();
+
+        try (ActionJournal journal = new ActionJournal(directory, 16L << 20)) {
+            CountDownLatch done = new CountDownLatch(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                String user = "user" + t;
+                new Thread(() -> {
+                    for (int i = 0; i < records / threads; i++) {
+                        while (!journal.append(new ActionRecord(user, System.currentTimeMillis(),
+                                ActionRecord.Type.SEARCHED, "High quality USB hub", 0, 0))) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long appended = System.nanoTime() - start;
+            journal.flush(60_000);
+            long durable = System.nanoTime() - start;
+            System.out.printf("append %,d records on %d threads: %,d ms (%,.0f ns/record on the caller), durable after %,d ms\n",
+                    records, threads, appended / 1_000_000, (double) appended * threads / records, durable / 1_000_000);
+        }
+
+        long start = System.nanoTime();
+        Map<String, List<ActionRecord>> histories = ActionJournal.readHistories(directory);
+        long read = System.nanoTime() - start;
+        int total = 0;
+        for (List<ActionRecord> history : histories.values()) {
+            total += history.size();
+        }
+        System.out.printf("read %,d records of %d users in %,d ms (%d segments)\n",
+                total, histories.size(), read / 1_000_000, directory.listFiles().length);
+
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,58 @@
+package main.java.benchmark;
+
+import main.java.metrics.Counter;
+import main.java.metrics.Metrics;
+import main.java.metrics.Timer;
+
+/**
+ * Measures what the instrumentation adds to every call: a timer sampling one call in 1024 as used
+ * for the sub-microsecond queries, a timer timing every call and a counter.
+ * Run it once more with -Dwarehouse.metrics=false for the cost of disabled metrics.
+ * Usage: MetricsBenchmark [calls] [iterations]
+ *
+ */
+public class MetricsBenchmark {
+
+    static volatile long sink;
+
+    public static void main(String[] args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 50_000_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Timer sampled = Metrics.timer("benchmark.sampled", 1024);
+        Timer timed = Metrics.timer("benchmark.timed");
+        Counter counter = Metrics.counter("benchmark.counter");
+        System.out.printf("%,d calls, metrics %s\n", calls, System.getProperty(Metrics.ENABLED_PROPERTY, "true"));
+
+        for (int i = 0; i < iterations; i++) {
+            long consumed = 0;
+            long start = System.nanoTime();
+            for (int call = 0; call < calls; call++) {
+                long started = sampled.start();
+                consumed += call;
+                sampled.stop(started);
+            }
+            double sampledNanos = (double) (System.nanoTime() - start) / calls;
+
+            int timedCalls = calls / 10;
+            start = System.nanoTime();
+            for (int call = 0; call < timedCalls; call++) {
+                long started = timed.start();
+                consumed += call;
+                timed.stop(started);
+            }
+            double timedNanos = (double) (System.nanoTime() - start) / timedCalls;
+
+            start = System.nanoTime();
+            for (int call = 0; call < calls; call++) {
+                counter.increment();
+            }
+            double counterNanos = (double) (System.nanoTime() - start) / calls;
+            sink = consumed;
+
+            System.out.printf("sampled timer %6.2f ns | timer %6.2f ns | counter %6.2f ns per call\n",
+                    sampledNanos, timedNanos, counterNanos);
+        }
+        Metrics.reset();
+    }
+}
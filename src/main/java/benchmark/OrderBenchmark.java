@@ -0,0 +1,68 @@
+package main.java.benchmark;
+
+import main.java.data.OrderService;
+import main.java.data.Reservation;
+import main.java.data.StockRepository;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures order throughput with 1 to 64 threads ordering the same few items, and checks
+ * that no unit is sold twice.
+ * Usage: OrderBenchmark [items] [distinct item names ordered] [seconds per step]
+ *
+ */
+public class OrderBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int names = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 2) * 1000L;
+
+        String[] ordered = new String[names];
+        for (int i = 0; i < names; i++) {
+            ordered[i] = SyntheticStock.STATES[i % SyntheticStock.STATES.length] + " "
+                    + SyntheticStock.CATEGORIES[i % SyntheticStock.CATEGORIES.length];
+        }
+
+        System.out.printf("%,d items, orders over %d item names\n", size, names);
+        System.out.printf("%8s %14s %12s %12s\n", "threads", "orders/s", "rejected", "conflicts");
+        for (int threads : THREADS) {
+            StockRepository.replaceAllItems(SyntheticStock.items(size, 50));
+            long conflictsBefore = OrderService.getConflicts();
+            LongAdder orders = new LongAdder();
+            LongAdder units = new LongAdder();
+            LongAdder rejected = new LongAdder();
+            CountDownLatch done = new CountDownLatch(threads);
+            long deadline = System.nanoTime() + millis * 1_000_000L;
+
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(t);
+                new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        Reservation reservation = OrderService.placeOrder(ordered[random.nextInt(names)], 1 + random.nextInt(3));
+                        if (reservation == null) {
+                            rejected.increment();
+                        } else {
+                            orders.increment();
+                            units.add(reservation.getAmount());
+                        }
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+
+            if (StockRepository.getAllItems().size() != size - units.sum()) {
+                throw new IllegalStateException("Stock does not match the sold units");
+            }
+            System.out.printf("%8d %,14.0f %,12d %,12d\n", threads, orders.sum() / (millis / 1000.0),
+                    rejected.sum(), OrderService.getConflicts() - conflictsBefore);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package main.java.benchmark;
+
+import main.java.data.ColumnarStockStore;
+import main.java.data.ParallelStockLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how loading a very large stock.json into columns scales with the number of threads,
+ * against the sequential streaming load. The synthetic file is written once and kept for later runs.
+ * Usage: ParallelLoadBenchmark [gigabytes] [iterations] [file]
+ *
+ */
+public class ParallelLoadBenchmark {
+
+    // the size of a synthetic record, including the separator
+    private static final int RECORD_SIZE = 103;
+
+    public static void main(String[] args) throws IOException {
+        double gigabytes = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File file = new File(args.length > 2 ? args[2]
+                : System.getProperty("java.io.tmpdir") + File.separator + "stock-" + label(gigabytes) + "gb.json");
+
+        long records = (long) (gigabytes * 1e9 / RECORD_SIZE);
+        if (!file.exists()) {
+            System.out.printf("Writing %,d records to %s\n", records, file);
+            SyntheticStock.writeJson(file.getPath(), records, 50);
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+        System.out.printf("%s: %,d MB, %d processors\n", file.getName(), file.length() >> 20, processors);
+
+        for (int i = 0; i < iterations; i++) {
+            measure("sequential", () -> ColumnarStockStore.load(file.getPath()), file);
+            for (int threads : threadCounts) {
+                measure(threads + " threads", () -> ParallelStockLoader.load(file.getPath(), threads), file);
+            }
+        }
+    }
+
+    private interface Loader {
+        ColumnarStockStore load() throws IOException;
+    }
+
+    private static void measure(String name, Loader loader, File file) throws IOException {
+        System.gc();
+        long start = System.nanoTime();
+        ColumnarStockStore store = loader.load();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-12s %,12d records %,8d ms %,8.0f MB/s\n",
+                name, store.size(), elapsed / 1_000_000, (file.length() / 1e6) / (elapsed / 1e9));
+    }
+
+    private static String label(double gigabytes) {
+        return (gigabytes == Math.rint(gigabytes)) ? Long.toString((long) gigabytes) : Double.toString(gigabytes);
+    }
+}
@@ -0,0 +1,58 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.RebalancePlan;
+import main.java.data.RebalancePlanner;
+import main.java.data.StockRepository;
+import main.java.data.StockSnapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures planning and applying rebalancing moves over a large stock: from the evenly spread
+ * synthetic stock to shares growing with the warehouse ID, and back to an even spread.
+ * Usage: RebalanceBenchmark [items] [warehouses] [iterations]
+ *
+ */
+public class RebalanceBenchmark {
+
+    public static void main(String[] args) {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int warehouses = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<Item> items = SyntheticStock.items(size, warehouses);
+        StockRepository.replaceAllItems(items);
+        System.out.printf("%,d items in %d warehouses, %d processors\n", size, warehouses, Runtime.getRuntime().availableProcessors());
+
+        Map<String, Map<Integer, Double>> skewed = new TreeMap<String, Map<Integer, Double>>();
+        Map<Integer, Double> growing = new TreeMap<Integer, Double>();
+        for (int warehouse : StockRepository.snapshot().getWarehouses()) {
+            growing.put(warehouse, (double) warehouse);
+        }
+        for (String category : StockRepository.snapshot().getCategories()) {
+            skewed.put(category, growing);
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            run("skewed", skewed);
+            run("even", RebalancePlanner.evenShares(StockRepository.snapshot()));
+        }
+        if (StockRepository.snapshot().size() != size) throw new IllegalStateException("Items were lost");
+    }
+
+    private static void run(String name, Map<String, Map<Integer, Double>> targets) {
+        StockSnapshot stock = StockRepository.snapshot();
+        long start = System.nanoTime();
+        RebalancePlan plan = RebalancePlanner.plan(stock, targets);
+        long planned = System.nanoTime() - start;
+        start = System.nanoTime();
+        int moved = RebalancePlanner.apply(plan);
+        long applied = System.nanoTime() - start;
+        System.out.printf("%-7s plan %,6d ms | apply %,6d ms | %,d transfers, %,d items moved\n",
+                name, planned / 1_000_000, applied / 1_000_000, plan.getTransfers().size(), moved);
+    }
+}
@@ -0,0 +1,47 @@
+package main.java.benchmark;
+
+import main.java.data.ColumnarStockStore;
+import main.java.data.Item;
+import main.java.data.StockJsonReader;
+import main.java.data.StockSnapshotFile;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Compares loading the stock from JSON with opening its binary snapshot.
+ * Usage: SnapshotStartupBenchmark [stock.json] [iterations]
+ *
+ */
+public class SnapshotStartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File source = new File(args.length > 0 ? args[0] : "src/main/resources/stock.json");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        File snapshot = File.createTempFile("stock", ".snapshot");
+        snapshot.deleteOnExit();
+
+        long start = System.nanoTime();
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.load(source.getPath()), source);
+        System.out.printf("Converted %s (%,d KB) to snapshot (%,d KB) in %,d ms\n", source, source.length() >> 10,
+                snapshot.length() >> 10, (System.nanoTime() - start) / 1_000_000);
+
+        for (int i = 0; i < iterations; i++) {
+            start = System.nanoTime();
+            List<Item> items = StockJsonReader.readItems(source.getPath());
+            long json = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            StockSnapshotFile mapped = StockSnapshotFile.open(snapshot);
+            long open = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Item> snapshotItems = mapped.readItems();
+            long materialize = System.nanoTime() - start;
+
+            System.out.printf("json %,6d ms | snapshot open %,6d us, %,d records, all Items %,6d ms\n",
+                    json / 1_000_000, open / 1_000, mapped.size(), materialize / 1_000_000);
+            if (items.size() != snapshotItems.size()) throw new IllegalStateException("Record count differs");
+        }
+    }
+}
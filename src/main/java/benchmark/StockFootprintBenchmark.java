@@ -0,0 +1,40 @@
+package main.java.benchmark;
+
+import main.java.data.ColumnarStockStore;
+import main.java.data.Item;
+import main.java.data.StockJsonReader;
+
+import java.util.List;
+
+/**
+ * Compares the memory footprint of the List of Item layout with the columnar store.
+ * Usage: StockFootprintBenchmark [path]
+ *
+ */
+public class StockFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "src/main/resources/stock.json";
+
+        long before = usedHeap();
+        List<Item> items = StockJsonReader.readItems(path);
+        long listHeap = usedHeap() - before;
+        System.out.printf("List<Item>          %,10d items  estimated %,8d KB  measured %,8d KB\n",
+                items.size(), ColumnarStockStore.listFootprint(items) >> 10, listHeap >> 10);
+        items = null;
+
+        before = usedHeap();
+        ColumnarStockStore store = ColumnarStockStore.load(path);
+        long storeHeap = usedHeap() - before;
+        System.out.printf("ColumnarStockStore  %,10d items  estimated %,8d KB  measured %,8d KB\n",
+                store.size(), store.memoryFootprint() >> 10, storeHeap >> 10);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,92 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.ParallelStockLoader;
+import main.java.data.StockJsonReader;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the startup cost of the json-simple tree loader with the streaming StockJsonReader,
+ * reading the file on one thread and in chunks on all cores.
+ * Usage: StockLoadBenchmark [path] [iterations]
+ *
+ */
+public class StockLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "src/main/resources/stock.json";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("Loading %s, %d iterations\n", path, iterations);
+        for (int i = 0; i < iterations; i++) {
+            measure("json-simple tree", () -> loadWithJsonTree(path));
+            measure("streaming reader", () -> StockJsonReader.readItems(path));
+            measure("parallel chunks", () -> ParallelStockLoader.loadItems(path));
+        }
+    }
+
+    private interface Loader {
+        List<Item> load() throws Exception;
+    }
+
+    private static void measure(String name, Loader loader) throws Exception {
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        List<Item> items = loader.load();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-18s %,10d items %,8d ms  peak heap %,6d MB\n",
+                name, items.size(), elapsed / 1_000_000, peakHeap() >> 20);
+    }
+
+    /**
+     * The loader StockRepository used before the streaming reader
+     */
+    static List<Item> loadWithJsonTree(String path) throws IOException, ParseException {
+        List<Item> items = new ArrayList<Item>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            Object data = JSONValue.parse(reader);
+            if (data instanceof JSONArray) {
+                for (Object obj : (JSONArray) data) {
+                    if (obj instanceof JSONObject) {
+                        JSONObject jsonData = (JSONObject) obj;
+                        Item item = new Item();
+                        item.setState(jsonData.get("state").toString());
+                        item.setCategory(jsonData.get("category").toString());
+                        item.setWarehouse(Integer.parseInt(jsonData.get("warehouse").toString()));
+                        item.setDateOfStock(new SimpleDateFormat("yyyy-MM-dd hh:mm:ss").parse(jsonData.get("date_of_stock").toString()));
+                        items.add(item);
+                    }
+                }
+            }
+        }
+        return items;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
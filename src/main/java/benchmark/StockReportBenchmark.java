@@ -0,0 +1,55 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.StockReport;
+import main.java.data.StockRepository;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the per-warehouse and per-category passes TheWarehouseManager used for its totals
+ * with the single pass StockReport, serial and parallel.
+ * Usage: StockReportBenchmark [items] [warehouses] [iterations]
+ *
+ */
+public class StockReportBenchmark {
+
+    public static void main(String[] args) {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int warehouses = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<Item> items = SyntheticStock.items(size, warehouses);
+        StockRepository.replaceAllItems(items);
+        Set<String> categories = StockRepository.getCategories();
+        long now = System.currentTimeMillis();
+        System.out.printf("%,d items, %d warehouses, %d cores\n", size, warehouses, Runtime.getRuntime().availableProcessors());
+
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long passes = 0;
+            for (int warehouse : StockRepository.getWarehouses()) {
+                for (String category : categories) {
+                    passes += StockRepository.getItemsByCategory(category, StockRepository.getItemsByWarehouse(warehouse)).size();
+                }
+            }
+            long serialPasses = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            StockReport serial = StockReport.of(items, categories, now, false);
+            long serialReport = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            StockReport parallel = StockReport.of(items, categories, now, true);
+            long parallelReport = System.nanoTime() - start;
+
+            if (serial.getTotal() != parallel.getTotal() || passes != parallel.getTotal()) {
+                throw new IllegalStateException("Reports differ");
+            }
+            System.out.printf("matrix by passes %,6d ms | report serial %,6d ms | report parallel %,6d ms\n",
+                    serialPasses / 1_000_000, serialReport / 1_000_000, parallelReport / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.StockJsonReader;
+import main.java.data.StockRepository;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic stock data with the same shape as stock.json
+ *
+ */
+public class SyntheticStock {
+
+    static final String[] STATES = {
+            "Funny", "White", "Almost new", "Red", "Second hand", "Original", "High quality",
+            "Elegant", "Brand new", "Blue", "Black", "Cheap", "Wireless", "Exceptional"
+    };
+    static final String[] CATEGORIES = {
+            "Game console", "GPS", "Router", "Remote control", "Smartwatch", "Camera", "iOS charger",
+            "Keyboard", "Headphones", "Tablet", "Surveillance camera", "Scanner", "Mouse", "Laptop",
+            "Beamer", "Monitor", "Home-cinema", "Television", "Speakers", "HDMI cable", "Smart TV",
+            "Printer", "Smartphone", "USB hub", "Pen drive", "Microphone"
+    };
+
+    /**
+     * Keep the synthetic stock of a benchmark out of the persisted stock.
+     * Must be called before the StockRepository is used.
+     */
+    static void disablePersistence() {
+        System.setProperty(StockRepository.PERSIST_PROPERTY, "false");
+    }
+
+    // stock dates are spread over the three years before this instant
+    private static final long LATEST_STOCK = Instant.parse("2021-06-01T00:00:00Z").getEpochSecond();
+    private static final long STOCK_PERIOD = 3L * 365 * 24 * 60 * 60;
+
+    private final Random random;
+    private final int warehouses;
+
+    public SyntheticStock(long seed, int warehouses) {
+        this.random = new Random(seed);
+        this.warehouses = warehouses;
+    }
+
+    /**
+     * Generate the given number of items in memory
+     *
+     * @param count
+     * @param warehouses
+     * @return
+     */
+    public static List<Item> items(int count, int warehouses) {
+        SyntheticStock stock = new SyntheticStock(42, warehouses);
+        List<Item> items = new ArrayList<Item>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(stock.nextItem());
+        }
+        return items;
+    }
+
+    /**
+     * Write the given number of records to a file in the stock.json format
+     *
+     * @param path
+     * @param count
+     * @param warehouses
+     * @throws IOException
+     */
+    public static void writeJson(String path, long count, int warehouses) throws IOException {
+        SyntheticStock stock = new SyntheticStock(42, warehouses);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write('[');
+            for (long i = 0; i < count; i++) {
+                if (i > 0) writer.write(", ");
+                stock.writeRecord(writer);
+            }
+            writer.write(']');
+        }
+    }
+
+    public Item nextItem() {
+        return StockJsonReader.newItem(nextState(), nextCategory(), nextWarehouse(), nextEpochSecond());
+    }
+
+    private void writeRecord(Writer writer) throws IOException {
+        String date = StockJsonReader.DATE_FORMAT.format(Instant.ofEpochSecond(nextEpochSecond()).atZone(ZoneId.systemDefault()));
+        writer.write("{\"state\": \"");
+        writer.write(nextState());
+        writer.write("\", \"category\": \"");
+        writer.write(nextCategory());
+        writer.write("\", \"warehouse\": ");
+        writer.write(Integer.toString(nextWarehouse()));
+        writer.write(", \"date_of_stock\": \"");
+        writer.write(date);
+        writer.write("\"}");
+    }
+
+    private String nextState() {
+        return STATES[random.nextInt(STATES.length)];
+    }
+
+    private String nextCategory() {
+        return CATEGORIES[random.nextInt(CATEGORIES.length)];
+    }
+
+    private int nextWarehouse() {
+        return 1 + random.nextInt(warehouses);
+    }
+
+    private long nextEpochSecond() {
+        return LATEST_STOCK - (long) (random.nextDouble() * STOCK_PERIOD);
+    }
+
+    /**
+     * Write a synthetic stock file: SyntheticStock [path] [records] [warehouses]
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : "stock-synthetic.json";
+        long count = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L;
+        int warehouses = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        writeJson(path, count, warehouses);
+        System.out.printf("Wrote %d records to %s\n", count, path);
+    }
+}
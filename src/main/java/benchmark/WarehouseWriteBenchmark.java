@@ -0,0 +1,68 @@
+package main.java.benchmark;
+
+import main.java.data.Item;
+import main.java.data.StockRepository;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Measures how writes scale with the warehouses they touch: every thread adding and removing items
+ * of the same warehouse, where they wait for each other, against every thread writing to its own warehouse.
+ * Usage: WarehouseWriteBenchmark [items] [warehouses] [seconds per step]
+ *
+ */
+public class WarehouseWriteBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        SyntheticStock.disablePersistence();
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int warehouses = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 2) * 1000L;
+
+        StockRepository.replaceAllItems(SyntheticStock.items(size, warehouses));
+        System.out.printf("%,d items in %d warehouses, %d processors\n", size, warehouses, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %18s %18s\n", "threads", "same warehouse/s", "own warehouse/s");
+
+        for (int threads : THREADS) {
+            double same = writes(threads, thread -> 1, millis);
+            double own = writes(threads, thread -> 1 + thread % warehouses, millis);
+            System.out.printf("%8d %,18.0f %,18.0f\n", threads, same, own);
+        }
+    }
+
+    /**
+     * Add and remove items for the given time, each thread in the warehouse chosen for it
+     *
+     * @return writes per second
+     */
+    private static double writes(int threads, IntUnaryOperator warehouseOf, long millis) throws InterruptedException {
+        LongAdder writes = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        for (int t = 0; t < threads; t++) {
+            int warehouse = warehouseOf.applyAsInt(t);
+            List<Item> own = SyntheticStock.items(1024, 1);
+            for (Item item : own) {
+                item.setWarehouse(warehouse);
+            }
+            Thread worker = new Thread(() -> {
+                int next = 0;
+                while (System.nanoTime() < deadline) {
+                    Item item = own.get(next++ & 1023);
+                    StockRepository.addItem(item);
+                    StockRepository.removeItem(item);
+                    writes.add(2);
+                }
+                done.countDown();
+            });
+            worker.start();
+        }
+        done.await();
+        return writes.sum() / (millis / 1000.0);
+    }
+}
@@ -0,0 +1,335 @@
+package main.java.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only journal of user actions.
+ * append() only queues the record; a background thread drains the queue in batches, writes each
+ * batch with one FileChannel write and forces it to disk once (group commit). The journal is split
+ * into numbered segment files that roll over at a fixed size.
+ *
+ * Record layout: length, type, timestamp, warehouse, amount, user, item, CRC32 of everything before it.
+ * Strings are written as a length followed by UTF-8 bytes.
+ *
+ */
+public class ActionJournal implements AutoCloseable {
+
+    static final String DEFAULT_DIRECTORY = "journal";
+    static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private static final String SEGMENT_PREFIX = "actions-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_BATCH = 4096;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int MIN_RECORD_SIZE = 4 + 1 + 8 + 4 + 4 + 2 + 2 + 4;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private static volatile ActionJournal DEFAULT;
+
+    private final File directory;
+    private final long segmentSize;
+    private final BlockingQueue<ActionRecord> queue = new LinkedBlockingQueue<ActionRecord>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object progress = new Object();
+    private long written;
+    private volatile boolean closed;
+
+    private FileChannel segment;
+    private int segmentNumber;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    public ActionJournal(File directory, long segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        // always start a new segment, so nothing is appended behind a damaged tail
+        File[] segments = segments(directory);
+        segmentNumber = (segments.length == 0) ? 1 : segmentNumber(segments[segments.length - 1]) + 1;
+        openSegment();
+
+        writer = new Thread(this::writeLoop, "action-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Get the journal in the default directory, opening it on first use
+     *
+     * @return the journal, or null if it cannot be opened
+     */
+    public static ActionJournal getDefault() {
+        ActionJournal journal = DEFAULT;
+        if (journal == null) {
+            synchronized (ActionJournal.class) {
+                journal = DEFAULT;
+                if (journal == null) {
+                    try {
+                        journal = new ActionJournal(new File(DEFAULT_DIRECTORY), DEFAULT_SEGMENT_SIZE);
+                        ActionJournal opened = journal;
+                        Runtime.getRuntime().addShutdownHook(new Thread(opened::close));
+                        DEFAULT = journal;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Queue a record for writing. This never blocks; if the writer is too far behind
+     * the record is dropped and counted.
+     *
+     * @param record
+     * @return whether the record was queued
+     */
+    public boolean append(ActionRecord record) {
+        if (closed || !queue.offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        appended.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Wait until every record appended so far is on disk
+     *
+     * @param timeoutMillis
+     * @return whether all records were written in time
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = appended.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progress) {
+            while (written < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !writer.isAlive()) return false;
+                try {
+                    progress.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Write all queued records and close the journal
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        flush(TimeUnit.SECONDS.toMillis(10));
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reading
+    // =====================================================================================
+
+    /**
+     * Read all records of a journal directory, in the order they were written.
+     * Reading stops at the first incomplete or damaged record of a segment.
+     *
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static List<ActionRecord> readAll(File directory) throws IOException {
+        List<ActionRecord> records = new ArrayList<ActionRecord>();
+        for (File file : segments(directory)) {
+            readSegment(file, records);
+        }
+        return records;
+    }
+
+    /**
+     * Rebuild the action history of every user from a journal directory
+     *
+     * @param directory
+     * @return user name to actions, in the order they were written
+     * @throws IOException
+     */
+    public static Map<String, List<ActionRecord>> readHistories(File directory) throws IOException {
+        Map<String, List<ActionRecord>> histories = new LinkedHashMap<String, List<ActionRecord>>();
+        for (ActionRecord record : readAll(directory)) {
+            histories.computeIfAbsent(record.getUserName(), user -> new ArrayList<ActionRecord>()).add(record);
+        }
+        return histories;
+    }
+
+    private static void readSegment(File file, List<ActionRecord> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            boolean end = false;
+            while (!end) {
+                end = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int start = buffer.position();
+                    int length = buffer.getInt(start);
+                    if (length < MIN_RECORD_SIZE || length > READ_BUFFER_SIZE) return;
+                    if (buffer.remaining() < length) break;
+
+                    ByteBuffer body = buffer.duplicate();
+                    body.limit(start + length - 4).position(start);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != buffer.getInt(start + length - 4)) return;
+
+                    buffer.position(start + 4);
+                    ActionRecord.Type type = ActionRecord.Type.of(buffer.get());
+                    long timestamp = buffer.getLong();
+                    int warehouse = buffer.getInt();
+                    int amount = buffer.getInt();
+                    String user = readString(buffer);
+                    String item = readString(buffer);
+                    records.add(new ActionRecord(user, timestamp, type, item, warehouse, amount));
+                    buffer.position(start + length);
+                }
+                buffer.compact();
+            }
+            // bytes left over at the end are an incomplete record from an interrupted write
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writing
+    // =====================================================================================
+
+    private void writeLoop() {
+        List<ActionRecord> batch = new ArrayList<ActionRecord>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                ActionRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                if (batch.isEmpty()) break;
+            }
+
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (progress) {
+                written += batch.size();
+                progress.notifyAll();
+            }
+            batch.clear();
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeBatch(List<ActionRecord> batch) throws IOException {
+        buffer.clear();
+        for (ActionRecord record : batch) {
+            byte[] user = truncate(record.getUserName().getBytes(StandardCharsets.UTF_8));
+            byte[] item = truncate(record.getItem().getBytes(StandardCharsets.UTF_8));
+            int length = MIN_RECORD_SIZE + user.length + item.length;
+            if (buffer.remaining() < length) {
+                writeBuffer();
+                buffer.clear();
+            }
+
+            int start = buffer.position();
+            buffer.putInt(length)
+                    .put((byte) record.getType().ordinal())
+                    .putLong(record.getTimestamp())
+                    .putInt(record.getWarehouse())
+                    .putInt(record.getAmount())
+                    .putShort((short) user.length).put(user)
+                    .putShort((short) item.length).put(item);
+            ByteBuffer body = buffer.duplicate();
+            body.limit(buffer.position()).position(start);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            buffer.putInt((int) crc.getValue());
+        }
+        writeBuffer();
+        segment.force(false);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        if (segment.size() > 0 && segment.size() + buffer.remaining() > segmentSize) {
+            segment.force(false);
+            segment.close();
+            segmentNumber++;
+            openSegment();
+        }
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+        segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        return (bytes.length <= MAX_STRING_BYTES) ? bytes : Arrays.copyOf(bytes, MAX_STRING_BYTES);
+    }
+
+    private static File[] segments(File directory) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) return new File[0];
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
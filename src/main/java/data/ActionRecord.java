@@ -0,0 +1,94 @@
+package main.java.data;
+
+/**
+ * One entry of the action journal: who did what, when, with which item, warehouse and amount
+ *
+ */
+public class ActionRecord {
+
+    /**
+     * The kinds of logged actions
+     */
+    public enum Type {
+        LISTED, SEARCHED, BROWSED, ORDERED;
+
+        private static final Type[] VALUES = values();
+
+        static Type of(int ordinal) {
+            return VALUES[ordinal];
+        }
+    }
+
+    private final String userName;
+    private final long timestamp;
+    private final Type type;
+    private final String item;
+    private final int warehouse;
+    private final int amount;
+
+    public ActionRecord(String userName, long timestamp, Type type, String item, int warehouse, int amount) {
+        this.userName = userName;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.item = (item == null) ? "" : item;
+        this.warehouse = warehouse;
+        this.amount = amount;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * @return the time of the action in epoch milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the item name or category the action was about, empty if none
+     */
+    public String getItem() {
+        return item;
+    }
+
+    /**
+     * @return the warehouse the action was about, 0 if none
+     */
+    public int getWarehouse() {
+        return warehouse;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    /**
+     * Textual representation of the action, as listed at the end of a session
+     */
+    @Override
+    public String toString() {
+        switch (type) {
+            case LISTED:
+                return "Listed " + amount + " items.";
+            case SEARCHED:
+                return "Searched " + indefiniteArticle(item) + " " + item + ".";
+            case BROWSED:
+                return "Browsed the category " + item + ".";
+            case ORDERED:
+                return "Ordered " + amount + " " + item + ((warehouse > 0) ? " from warehouse " + warehouse : "") + ".";
+            default:
+                return type.toString();
+        }
+    }
+
+    private static String indefiniteArticle(String word) {
+        String vowels = "aeiou";
+        return (!word.isEmpty() && vowels.indexOf(Character.toLowerCase(word.charAt(0))) != -1) ? "an" : "a";
+    }
+}
@@ -0,0 +1,267 @@
+package main.java.data;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column oriented stock store. Items are kept as parallel primitive columns:
+ * dictionary codes for state and category, the warehouse ID and the date of stock in epoch seconds.
+ * Item objects are only created when a record is read through get() or asItems().
+ * The store does not back the StockRepository, whose indexes hold Item objects; it is used to write
+ * the binary snapshot, to load very large stock files and to compare the footprint of both layouts.
+ *
+ */
+public class ColumnarStockStore implements StockJsonReader.RecordHandler {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StringDictionary states;
+    private final StringDictionary categories;
+
+    private int[] stateCodes;
+    private int[] categoryCodes;
+    private int[] warehouses;
+    private long[] epochSeconds;
+    private int size;
+
+    public ColumnarStockStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ColumnarStockStore(int capacity) {
+        this(new StringDictionary(), new StringDictionary(), capacity);
+    }
+
+    ColumnarStockStore(StringDictionary states, StringDictionary categories, int capacity) {
+        this.states = states;
+        this.categories = categories;
+        int initial = Math.max(capacity, 1);
+        this.stateCodes = new int[initial];
+        this.categoryCodes = new int[initial];
+        this.warehouses = new int[initial];
+        this.epochSeconds = new long[initial];
+    }
+
+    /**
+     * Load a stock.json file straight into columns
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarStockStore load(String path) throws IOException {
+        ColumnarStockStore store = new ColumnarStockStore();
+        try (StockJsonReader reader = StockJsonReader.open(path)) {
+            reader.read(store);
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    /**
+     * Copy the given items into a new store
+     *
+     * @param items
+     * @return
+     */
+    public static ColumnarStockStore of(List<Item> items) {
+        ColumnarStockStore store = new ColumnarStockStore(items.size());
+        for (Item item : items) {
+            store.add(item);
+        }
+        return store;
+    }
+
+    /**
+     * Concatenate stores into one, in order. Every store has its own dictionaries,
+     * their codes are translated to the dictionaries of the result.
+     *
+     * @param parts
+     * @return
+     */
+    static ColumnarStockStore concat(List<ColumnarStockStore> parts) {
+        long total = 0;
+        for (ColumnarStockStore part : parts) {
+            total += part.size;
+        }
+        if (total > Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many records for one store: " + total);
+
+        ColumnarStockStore store = new ColumnarStockStore((int) total);
+        for (ColumnarStockStore part : parts) {
+            int[] stateCodes = translate(part.states, store.states);
+            int[] categoryCodes = translate(part.categories, store.categories);
+            for (int i = 0; i < part.size; i++) {
+                store.stateCodes[store.size + i] = stateCodes[part.stateCodes[i]];
+                store.categoryCodes[store.size + i] = categoryCodes[part.categoryCodes[i]];
+            }
+            System.arraycopy(part.warehouses, 0, store.warehouses, store.size, part.size);
+            System.arraycopy(part.epochSeconds, 0, store.epochSeconds, store.size, part.size);
+            store.size += part.size;
+        }
+        return store;
+    }
+
+    /**
+     * The code in the target dictionary of every code of the source dictionary
+     */
+    private static int[] translate(StringDictionary source, StringDictionary target) {
+        int[] codes = new int[source.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = target.encode(source.decode(code));
+        }
+        return codes;
+    }
+
+    @Override
+    public void onRecord(String state, String category, int warehouse, long epochSecond) {
+        add(state, category, warehouse, epochSecond);
+    }
+
+    public void add(Item item) {
+        add(item.getState(), item.getCategory(), item.getWarehouse(), item.getDateOfStock().getTime() / 1000L);
+    }
+
+    public void add(String state, String category, int warehouse, long epochSecond) {
+        addEncoded(states.encode(state), categories.encode(category), warehouse, epochSecond);
+    }
+
+    /**
+     * Append a record whose strings are already encoded with this store's dictionaries
+     */
+    void addEncoded(int state, int category, int warehouse, long epochSecond) {
+        if (size == warehouses.length) grow(size + 1);
+        stateCodes[size] = state;
+        categoryCodes[size] = category;
+        warehouses[size] = warehouse;
+        epochSeconds[size] = epochSecond;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getState(int index) {
+        return states.decode(stateCodes[checkIndex(index)]);
+    }
+
+    public String getCategory(int index) {
+        return categories.decode(categoryCodes[checkIndex(index)]);
+    }
+
+    public int getStateCode(int index) {
+        return stateCodes[checkIndex(index)];
+    }
+
+    public int getCategoryCode(int index) {
+        return categoryCodes[checkIndex(index)];
+    }
+
+    public int getWarehouse(int index) {
+        return warehouses[checkIndex(index)];
+    }
+
+    public long getEpochSecond(int index) {
+        return epochSeconds[checkIndex(index)];
+    }
+
+    public StringDictionary getStates() {
+        return states;
+    }
+
+    public StringDictionary getCategories() {
+        return categories;
+    }
+
+    /**
+     * Create an Item for the record at the given index
+     *
+     * @param index
+     * @return
+     */
+    public Item get(int index) {
+        checkIndex(index);
+        Item item = new Item();
+        item.setState(states.decode(stateCodes[index]));
+        item.setCategory(categories.decode(categoryCodes[index]));
+        item.setWarehouse(warehouses[index]);
+        item.setDateOfStock(new Date(epochSeconds[index] * 1000L));
+        return item;
+    }
+
+    /**
+     * A read-only list view that creates Items on demand
+     *
+     * @return
+     */
+    public List<Item> asItems() {
+        return new AbstractList<Item>() {
+            @Override
+            public Item get(int index) {
+                return ColumnarStockStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Release the unused capacity of the columns
+     */
+    public void trimToSize() {
+        if (size < warehouses.length) resize(size);
+    }
+
+    /**
+     * Estimate the heap used by this store, assuming compressed references
+     *
+     * @return bytes
+     */
+    public long memoryFootprint() {
+        long columns = 3 * MemoryLayout.arraySize(warehouses.length, 4) + MemoryLayout.arraySize(epochSeconds.length, 8);
+        return columns + states.memoryFootprint() + categories.memoryFootprint();
+    }
+
+    /**
+     * Estimate the heap used by the same items held as a List of Item objects,
+     * counting every distinct String instance once
+     *
+     * @param items
+     * @return bytes
+     */
+    public static long listFootprint(List<Item> items) {
+        long bytes = MemoryLayout.align(MemoryLayout.OBJECT_HEADER + 8) + MemoryLayout.arraySize(items.size(), MemoryLayout.REFERENCE);
+        Map<String, Boolean> strings = new IdentityHashMap<String, Boolean>();
+        for (Item item : items) {
+            bytes += MemoryLayout.itemSize() + MemoryLayout.dateSize();
+            if (strings.put(item.getState(), Boolean.TRUE) == null) bytes += MemoryLayout.stringSize(item.getState());
+            if (strings.put(item.getCategory(), Boolean.TRUE) == null) bytes += MemoryLayout.stringSize(item.getCategory());
+        }
+        return bytes;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        return index;
+    }
+
+    private void grow(int minimum) {
+        int capacity = warehouses.length + (warehouses.length >> 1);
+        resize(Math.max(capacity, minimum));
+    }
+
+    private void resize(int capacity) {
+        stateCodes = Arrays.copyOf(stateCodes, capacity);
+        categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+        warehouses = Arrays.copyOf(warehouses, capacity);
+        epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+    }
+}
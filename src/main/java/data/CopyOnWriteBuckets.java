@@ -0,0 +1,97 @@
+package main.java.data;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copy-on-write editor for an index of item buckets. The base map and its buckets are never modified:
+ * buckets are chunked, so a write copies the touched chunk of a bucket and not the whole bucket,
+ * and the map is copied once when the result is built.
+ * After result() has been called the editor must not be used any more.
+ *
+ */
+final class CopyOnWriteBuckets<K> {
+
+    private final Map<K, List<Item>> base;
+    private final UnaryOperator<Map<K, List<Item>>> copier;
+    private final Map<K, ItemChunks.Editor> edited = new HashMap<K, ItemChunks.Editor>();
+
+    CopyOnWriteBuckets(Map<K, List<Item>> base, UnaryOperator<Map<K, List<Item>>> copier) {
+        this.base = base;
+        this.copier = copier;
+    }
+
+    List<Item> get(K key) {
+        List<Item> items = edited.get(key);
+        if (items == null) items = base.get(key);
+        return (items == null || items.isEmpty()) ? null : items;
+    }
+
+    void add(K key, Item item) {
+        writable(key).add(item);
+    }
+
+    /**
+     * Remove an item by identity
+     *
+     * @return whether the item was in the bucket
+     */
+    boolean remove(K key, Item item) {
+        return get(key) != null && writable(key).removeInstance(item);
+    }
+
+    /**
+     * Remove several items by identity in one pass over the bucket
+     *
+     * @param key
+     * @param items the items to remove, others in the set are ignored
+     * @param removed receives the removed items, may be null
+     * @return the number of removed items
+     */
+    int removeAll(K key, Set<Item> items, List<Item> removed) {
+        return (get(key) == null) ? 0 : writable(key).removeAll(items, removed);
+    }
+
+    boolean isEmpty() {
+        for (K key : base.keySet()) {
+            if (get(key) != null) return false;
+        }
+        for (ItemChunks.Editor items : edited.values()) {
+            if (!items.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    Map<K, List<Item>> result() {
+        if (edited.isEmpty()) return base;
+        Map<K, List<Item>> result = copier.apply(base);
+        for (Map.Entry<K, ItemChunks.Editor> entry : edited.entrySet()) {
+            if (entry.getValue().isEmpty()) result.remove(entry.getKey());
+            else result.put(entry.getKey(), entry.getValue().build());
+        }
+        return result;
+    }
+
+    /**
+     * Find an item by identity, searching from the end where new items are added
+     */
+    static int indexOf(List<Item> items, Item item) {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i) == item) return i;
+        }
+        return -1;
+    }
+
+    private ItemChunks.Editor writable(K key) {
+        ItemChunks.Editor items = edited.get(key);
+        if (items == null) {
+            List<Item> current = base.get(key);
+            items = (current == null) ? ItemChunks.EMPTY.edit() : ItemChunks.of(current).edit();
+            edited.put(key, items);
+        }
+        return items;
+    }
+}
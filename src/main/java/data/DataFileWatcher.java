@@ -0,0 +1,126 @@
+package main.java.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reloads the data files when they change on disk, so a new stock export is picked up without a restart.
+ * A background thread waits for changes with a WatchService. Exports are usually written in several steps,
+ * so a file is only reloaded after it has been quiet for a moment; the repositories then parse and compare
+ * the file on this thread while queries go on against the current data.
+ * The outcome of every reload is handed to the given log instead of being printed from this thread,
+ * so an interactive session can show it between its screens.
+ *
+ */
+public class DataFileWatcher implements AutoCloseable {
+
+    private static final long SETTLE_MILLIS = 500;
+
+    private final WatchService watchService;
+    // file to watch and how to reload it
+    private final Map<Path, Callable<Integer>> reloads = new LinkedHashMap<Path, Callable<Integer>>();
+    private final Consumer<String> log;
+    private final Thread thread;
+
+    private DataFileWatcher(Consumer<String> log) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.log = log;
+        this.thread = new Thread(this::watchLoop, "data-file-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start watching the stock and the personnel file
+     *
+     * @param log receives a message for every reload, on the watcher thread
+     * @return the running watcher
+     * @throws IOException
+     */
+    public static DataFileWatcher start(Consumer<String> log) throws IOException {
+        DataFileWatcher watcher = new DataFileWatcher(log);
+        watcher.watch(new File(StockRepository.STOCK_FILE), StockRepository::reload);
+        watcher.watch(new File(PersonnelRepository.PERSONNEL_FILE), PersonnelRepository::reload);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private void watch(File file, Callable<Integer> reload) throws IOException {
+        Path path = file.getAbsoluteFile().toPath().normalize();
+        Set<Path> directories = new HashSet<Path>();
+        for (Path watched : reloads.keySet()) {
+            directories.add(watched.getParent());
+        }
+        if (!directories.contains(path.getParent())) {
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        reloads.put(path, reload);
+    }
+
+    /**
+     * Stop watching
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void watchLoop() {
+        Set<Path> changed = new HashSet<Path>();
+        try {
+            while (true) {
+                // block until something happens, then collect events until the files have settled
+                WatchKey key = changed.isEmpty() ? watchService.take() : watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    reload(changed);
+                    changed.clear();
+                    continue;
+                }
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed.addAll(reloads.keySet());
+                    } else {
+                        Path path = directory.resolve((Path) event.context());
+                        if (reloads.containsKey(path)) changed.add(path);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private void reload(Set<Path> changed) {
+        for (Map.Entry<Path, Callable<Integer>> entry : reloads.entrySet()) {
+            if (!changed.contains(entry.getKey())) continue;
+            try {
+                long start = System.nanoTime();
+                int count = entry.getValue().call();
+                log.accept(String.format("Reloaded %s: %d changes in %d ms", entry.getKey().getFileName(), count,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            } catch (Exception e) {
+                // most likely a file that is still being written, the next change event reloads it again
+                log.accept("Could not reload " + entry.getKey().getFileName() + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package main.java.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a bulk import: how many items were added, which records were rejected and how fast it went
+ *
+ */
+public final class ImportResult {
+
+    private final long imported;
+    private final long rejected;
+    private final List<String> errors;
+    private final int batches;
+    private final long elapsedNanos;
+
+    ImportResult(long imported, long rejected, List<String> errors, int batches, long elapsedNanos) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.errors = Collections.unmodifiableList(errors);
+        this.batches = batches;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Get the reasons the first rejected records were rejected, with their line or position
+     *
+     * @return
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the number of changes the items were applied in
+     *
+     * @return
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Get the number of records read per second, imported or rejected
+     *
+     * @return
+     */
+    public double getItemsPerSecond() {
+        return (elapsedNanos == 0) ? 0 : (imported + rejected) * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d items imported, %,d rejected in %,d batches, %,d ms (%,.0f items/s)",
+                imported, rejected, batches, elapsedNanos / 1_000_000, getItemsPerSecond());
+    }
+}
@@ -53,10 +53,11 @@ public class Item {
 
     /**
      * Textual representation of the item.
-     * It's a combination of the state followed by the category
+     * It's a combination of the state followed by the category.
+     * Listings print it for every item, so it is built once per distinct state and category and shared.
      */
     @Override
     public String toString() {
-        return String.format("%s %s", this.getState(), this.getCategory().toLowerCase());
+        return ItemNameIndex.displayName(this.getState(), this.getCategory());
     }
 }
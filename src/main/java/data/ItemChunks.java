@@ -0,0 +1,252 @@
+package main.java.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An immutable list of items stored in chunks of at most CHUNK_SIZE items.
+ * Chunks are shared between a list and the lists edited from it, so changing one item
+ * copies the array of chunk references and the one chunk it is in, never the whole list.
+ *
+ */
+final class ItemChunks extends AbstractList<Item> implements RandomAccess {
+
+    static final int CHUNK_SIZE = 256;
+
+    static final ItemChunks EMPTY = new ItemChunks(new Item[0][]);
+
+    private final Item[][] chunks;
+    // the index after the last item of every chunk
+    private final int[] ends;
+
+    private ItemChunks(Item[][] chunks) {
+        this.chunks = chunks;
+        this.ends = new int[chunks.length];
+        int end = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            end += chunks[i].length;
+            ends[i] = end;
+        }
+    }
+
+    /**
+     * The given items as chunks, the list itself if it already is
+     *
+     * @param items
+     * @return
+     */
+    static ItemChunks of(List<Item> items) {
+        if (items instanceof ItemChunks) return (ItemChunks) items;
+        Item[][] chunks = new Item[(items.size() + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            int from = i * CHUNK_SIZE;
+            chunks[i] = items.subList(from, Math.min(from + CHUNK_SIZE, items.size())).toArray(new Item[0]);
+        }
+        return new ItemChunks(chunks);
+    }
+
+    /**
+     * The given lists one after the other. The chunks are shared, not copied,
+     * so this costs one reference per chunk and not one per item.
+     *
+     * @param lists
+     * @return
+     */
+    static ItemChunks concat(Collection<? extends List<Item>> lists) {
+        List<Item[]> chunks = new ArrayList<Item[]>();
+        for (List<Item> items : lists) {
+            Collections.addAll(chunks, of(items).chunks);
+        }
+        return new ItemChunks(chunks.toArray(new Item[0][]));
+    }
+
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    @Override
+    public Item get(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        int chunk = Arrays.binarySearch(ends, index + 1);
+        if (chunk < 0) chunk = -chunk - 1;
+        Item[] items = chunks[chunk];
+        return items[index - (ends[chunk] - items.length)];
+    }
+
+    @Override
+    public int size() {
+        return (ends.length == 0) ? 0 : ends[ends.length - 1];
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return new Iterator<Item>() {
+            private int chunk;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (chunk < chunks.length && index == chunks[chunk].length) {
+                    chunk++;
+                    index = 0;
+                }
+                return chunk < chunks.length;
+            }
+
+            @Override
+            public Item next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return chunks[chunk][index++];
+            }
+        };
+    }
+
+    /**
+     * Mutable copy of a chunk list. A chunk is copied the first time it is written to,
+     * and at most once per editor. After build() has been called the editor must not be used any more.
+     */
+    static final class Editor extends AbstractList<Item> implements RandomAccess {
+        // every chunk is either an Item[] shared with the base list or a List<Item> owned by this editor
+        private final List<Object> chunks;
+        private int size;
+        // the chunk the last get() was in and the index of its first item, for walking the list in order
+        private int cursorChunk;
+        private int cursorStart;
+
+        private Editor(ItemChunks base) {
+            this.chunks = new ArrayList<Object>(base.chunks.length + 1);
+            Collections.addAll(this.chunks, (Object[]) base.chunks);
+            this.size = base.size();
+        }
+
+        @Override
+        public Item get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            while (index < cursorStart) {
+                cursorChunk--;
+                cursorStart -= length(cursorChunk);
+            }
+            while (index >= cursorStart + length(cursorChunk)) {
+                cursorStart += length(cursorChunk);
+                cursorChunk++;
+            }
+            return item(cursorChunk, index - cursorStart);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean add(Item item) {
+            int last = chunks.size() - 1;
+            if (last < 0 || length(last) >= CHUNK_SIZE) {
+                chunks.add(new ArrayList<Item>());
+                last++;
+            }
+            writable(last).add(item);
+            size++;
+            return true;
+        }
+
+        /**
+         * Remove an item by identity, searching from the end where new items are added
+         *
+         * @param item
+         * @return whether the item was in the list
+         */
+        boolean removeInstance(Item item) {
+            for (int chunk = chunks.size() - 1; chunk >= 0; chunk--) {
+                for (int i = length(chunk) - 1; i >= 0; i--) {
+                    if (item(chunk, i) != item) continue;
+                    List<Item> items = writable(chunk);
+                    items.remove(i);
+                    if (items.isEmpty()) chunks.remove(chunk);
+                    size--;
+                    resetCursor();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remove the given items by identity, only the chunks holding one of them are copied
+         *
+         * @param items the items to remove, others in the set are ignored
+         * @param removed receives the removed items, may be null
+         * @return the number of removed items
+         */
+        int removeAll(Set<Item> items, List<Item> removed) {
+            int count = 0;
+            for (int chunk = chunks.size() - 1; chunk >= 0; chunk--) {
+                int length = length(chunk);
+                int first = 0;
+                while (first < length && !items.contains(item(chunk, first))) first++;
+                if (first == length) continue;
+
+                List<Item> kept = new ArrayList<Item>(length);
+                for (int i = 0; i < length; i++) {
+                    Item item = item(chunk, i);
+                    if (i < first || !items.contains(item)) kept.add(item);
+                    else if (removed != null) removed.add(item);
+                }
+                count += length - kept.size();
+                if (kept.isEmpty()) chunks.remove(chunk);
+                else chunks.set(chunk, kept);
+            }
+            size -= count;
+            if (count > 0) resetCursor();
+            return count;
+        }
+
+        ItemChunks build() {
+            Item[][] built = new Item[chunks.size()][];
+            for (int i = 0; i < built.length; i++) {
+                Object chunk = chunks.get(i);
+                built[i] = (chunk instanceof Item[]) ? (Item[]) chunk : asList(chunk).toArray(new Item[0]);
+            }
+            return new ItemChunks(built);
+        }
+
+        private int length(int chunk) {
+            Object items = chunks.get(chunk);
+            return (items instanceof Item[]) ? ((Item[]) items).length : asList(items).size();
+        }
+
+        private Item item(int chunk, int index) {
+            Object items = chunks.get(chunk);
+            return (items instanceof Item[]) ? ((Item[]) items)[index] : asList(items).get(index);
+        }
+
+        private List<Item> writable(int chunk) {
+            Object items = chunks.get(chunk);
+            if (items instanceof Item[]) {
+                List<Item> copy = new ArrayList<Item>(CHUNK_SIZE);
+                Collections.addAll(copy, (Item[]) items);
+                chunks.set(chunk, copy);
+                return copy;
+            }
+            return asList(items);
+        }
+
+        private void resetCursor() {
+            cursorChunk = 0;
+            cursorStart = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<Item> asList(Object chunk) {
+            return (List<Item>) chunk;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package main.java.data;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An item name found by a similarity search, with the number of its items in stock per warehouse
+ *
+ */
+public final class ItemMatch {
+
+    private final String name;
+    private final double similarity;
+    private final Map<Integer, Integer> amountPerWarehouse;
+    private final int amount;
+
+    ItemMatch(String name, double similarity, Map<Integer, Integer> amountPerWarehouse) {
+        this.name = name;
+        this.similarity = similarity;
+        this.amountPerWarehouse = Collections.unmodifiableMap(amountPerWarehouse);
+        int amount = 0;
+        for (int warehouseAmount : amountPerWarehouse.values()) {
+            amount += warehouseAmount;
+        }
+        this.amount = amount;
+    }
+
+    /**
+     * Get the display name of the items, "state category"
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get how close the name is to the searched text
+     *
+     * @return between 0 and 1, 1 for the same trigrams
+     */
+    public double getSimilarity() {
+        return similarity;
+    }
+
+    /**
+     * Get the number of items in stock per warehouse, by warehouse ID
+     *
+     * @return
+     */
+    public Map<Integer, Integer> getAmountPerWarehouse() {
+        return amountPerWarehouse;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + amount + " in stock)";
+    }
+}
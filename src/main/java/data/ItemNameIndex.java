@@ -0,0 +1,325 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of items by their display name ("state category"), split per warehouse.
+ * Names are stored normalized so a search never has to format or compare individual items.
+ * The names are striped by hash over sorted maps, so a change copies one stripe and not every name.
+ * The index is immutable, changes are made through a copy-on-write Builder.
+ *
+ */
+class ItemNameIndex {
+
+    private static final int STRIPES = 64;
+    // display names are cached for up to this many distinct state and category pairs
+    private static final int MAX_DISPLAY_NAMES = 1 << 16;
+
+    static final ItemNameIndex EMPTY = new ItemNameIndex(emptyStripes());
+
+    // normalized name to the items of that name per warehouse, striped by the hash of the name
+    // and sorted within a stripe for prefix lookups
+    private final List<TreeMap<String, Map<Integer, List<Item>>>> stripes;
+    // trigrams of the names, built on first use and kept by later indexes with the same names
+    private volatile NameTrigramIndex trigrams;
+
+    // display names by state and category, shared by all items of a pair
+    private static final Map<String, Map<String, String>> DISPLAY_NAMES = new ConcurrentHashMap<String, Map<String, String>>();
+    private static final AtomicInteger DISPLAY_NAME_COUNT = new AtomicInteger();
+
+    private ItemNameIndex(List<TreeMap<String, Map<Integer, List<Item>>>> stripes) {
+        this.stripes = stripes;
+    }
+
+    private static List<TreeMap<String, Map<Integer, List<Item>>>> emptyStripes() {
+        List<TreeMap<String, Map<Integer, List<Item>>>> stripes = new ArrayList<TreeMap<String, Map<Integer, List<Item>>>>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new TreeMap<String, Map<Integer, List<Item>>>());
+        }
+        return stripes;
+    }
+
+    private static int stripe(String name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private Map<Integer, List<Item>> warehouses(String name) {
+        return stripes.get(stripe(name)).get(name);
+    }
+
+    /**
+     * Normalize a name for lookups: trimmed, single spaces and lower case
+     *
+     * @param name
+     * @return
+     */
+    static String normalize(String name) {
+        String trimmed = name.trim();
+        StringBuilder normalized = new StringBuilder(trimmed.length());
+        boolean space = false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) normalized.append(' ');
+            space = false;
+            normalized.append(Character.toLowerCase(c));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The display name of items with the given state and category, e.g. "Used laptop".
+     * One String is kept per distinct pair instead of one per item.
+     *
+     * @param state
+     * @param category
+     * @return
+     */
+    static String displayName(String state, String category) {
+        Map<String, String> categories = (state == null) ? null : DISPLAY_NAMES.get(state);
+        String name = (categories == null) ? null : categories.get(category);
+        if (name != null) return name;
+
+        name = state + " " + category.toLowerCase();
+        if (state != null && DISPLAY_NAME_COUNT.get() < MAX_DISPLAY_NAMES) {
+            if (categories == null) {
+                categories = DISPLAY_NAMES.computeIfAbsent(state, key -> new ConcurrentHashMap<String, String>());
+            }
+            if (categories.putIfAbsent(category, name) == null) DISPLAY_NAME_COUNT.incrementAndGet();
+        }
+        return name;
+    }
+
+    /**
+     * The normalized name of an item
+     *
+     * @param item
+     * @return
+     */
+    static String nameOf(Item item) {
+        return normalize(item.getState() + " " + item.getCategory());
+    }
+
+    Builder edit() {
+        return new Builder(this);
+    }
+
+    /**
+     * Check whether the given item instance is indexed
+     *
+     * @param item
+     * @return
+     */
+    boolean contains(Item item) {
+        Map<Integer, List<Item>> warehouses = warehouses(nameOf(item));
+        List<Item> items = (warehouses == null) ? null : warehouses.get(item.getWarehouse());
+        return items != null && CopyOnWriteBuckets.indexOf(items, item) >= 0;
+    }
+
+    /**
+     * Get the items of a name in a warehouse
+     *
+     * @param name a normalized name
+     * @param warehouse
+     * @return null if there are none
+     */
+    List<Item> items(String name, int warehouse) {
+        Map<Integer, List<Item>> warehouses = warehouses(name);
+        return (warehouses == null) ? null : warehouses.get(warehouse);
+    }
+
+    /**
+     * Collect the display names starting with a normalized prefix
+     *
+     * @param from the normalized prefix
+     * @param names receives the display names by normalized name
+     * @return names
+     */
+    TreeMap<String, String> namesStartingWith(String from, TreeMap<String, String> names) {
+        for (TreeMap<String, Map<Integer, List<Item>>> stripe : stripes) {
+            for (Map.Entry<String, Map<Integer, List<Item>>> entry : stripe.tailMap(from, true).entrySet()) {
+                if (!entry.getKey().startsWith(from)) break;
+                names.putIfAbsent(entry.getKey(), displayName(entry.getValue()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Collect the display names containing a normalized text.
+     * This scans the distinct names only, never the items.
+     *
+     * @param part the normalized text
+     * @param names receives the display names by normalized name
+     * @return names
+     */
+    TreeMap<String, String> namesContaining(String part, TreeMap<String, String> names) {
+        for (TreeMap<String, Map<Integer, List<Item>>> stripe : stripes) {
+            for (Map.Entry<String, Map<Integer, List<Item>>> entry : stripe.entrySet()) {
+                if (entry.getKey().contains(part)) names.putIfAbsent(entry.getKey(), displayName(entry.getValue()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Search the names of this index only, for combining with other indexes in matches()
+     *
+     * @param text the normalized text
+     * @param minimumSimilarity between 0 and 1
+     * @param limit the maximum number of names
+     * @return
+     */
+    List<NameTrigramIndex.Match> similarNames(String text, double minimumSimilarity, int limit) {
+        return trigrams().search(text, minimumSimilarity, limit);
+    }
+
+    /**
+     * Combine the similar names found in several indexes, e.g. those of all warehouses.
+     * The similarity of a name does not depend on the index, so the best names overall are among the best of
+     * every index that has them; their amounts are summed over all indexes.
+     *
+     * @param indexes
+     * @param found the names found in each of the indexes
+     * @param limit the maximum number of names
+     * @return the most similar name first, names of the same similarity in alphabetical order
+     */
+    static List<ItemMatch> matches(Collection<ItemNameIndex> indexes, Collection<List<NameTrigramIndex.Match>> found, int limit) {
+        Map<String, Double> similarities = new HashMap<String, Double>();
+        for (List<NameTrigramIndex.Match> matches : found) {
+            for (NameTrigramIndex.Match match : matches) {
+                similarities.put(match.name, match.similarity);
+            }
+        }
+        List<Map.Entry<String, Double>> best = new ArrayList<Map.Entry<String, Double>>(similarities.entrySet());
+        best.sort((a, b) -> !a.getValue().equals(b.getValue())
+                ? Double.compare(b.getValue(), a.getValue()) : a.getKey().compareTo(b.getKey()));
+
+        List<ItemMatch> matches = new ArrayList<ItemMatch>();
+        for (Map.Entry<String, Double> match : best.subList(0, Math.min(limit, best.size()))) {
+            String displayName = null;
+            Map<Integer, Integer> amounts = new TreeMap<Integer, Integer>();
+            for (ItemNameIndex index : indexes) {
+                Map<Integer, List<Item>> warehouses = index.warehouses(match.getKey());
+                if (warehouses == null) continue;
+                if (displayName == null) displayName = displayName(warehouses);
+                for (Map.Entry<Integer, List<Item>> entry : warehouses.entrySet()) {
+                    amounts.merge(entry.getKey(), entry.getValue().size(), Integer::sum);
+                }
+            }
+            matches.add(new ItemMatch(displayName, match.getValue(), amounts));
+        }
+        return matches;
+    }
+
+    private NameTrigramIndex trigrams() {
+        NameTrigramIndex index = trigrams;
+        if (index == null) {
+            Set<String> names = new HashSet<String>();
+            for (TreeMap<String, Map<Integer, List<Item>>> stripe : stripes) {
+                names.addAll(stripe.keySet());
+            }
+            index = NameTrigramIndex.of(names);
+            trigrams = index;
+        }
+        return index;
+    }
+
+    /**
+     * The display name of a name's items, taken from any one of them
+     */
+    private static String displayName(Map<Integer, List<Item>> warehouses) {
+        return warehouses.values().iterator().next().get(0).toString();
+    }
+
+    /**
+     * Copy-on-write editor of a name index
+     */
+    static final class Builder {
+        private final ItemNameIndex base;
+        private final Map<String, CopyOnWriteBuckets<Integer>> touched = new HashMap<String, CopyOnWriteBuckets<Integer>>();
+
+        private Builder(ItemNameIndex base) {
+            this.base = base;
+        }
+
+        void add(Item item) {
+            buckets(nameOf(item)).add(item.getWarehouse(), item);
+        }
+
+        boolean remove(Item item) {
+            return buckets(nameOf(item)).remove(item.getWarehouse(), item);
+        }
+
+        /**
+         * Remove indexed items by identity, filtering every bucket they are in once
+         *
+         * @param items items that are in the index
+         */
+        void removeAll(Set<Item> items) {
+            Map<String, Set<Integer>> warehousesByName = new HashMap<String, Set<Integer>>();
+            for (Item item : items) {
+                warehousesByName.computeIfAbsent(nameOf(item), name -> new HashSet<Integer>()).add(item.getWarehouse());
+            }
+            for (Map.Entry<String, Set<Integer>> entry : warehousesByName.entrySet()) {
+                CopyOnWriteBuckets<Integer> buckets = buckets(entry.getKey());
+                for (int warehouse : entry.getValue()) {
+                    buckets.removeAll(warehouse, items, null);
+                }
+            }
+        }
+
+        /**
+         * The items of a normalized name in a warehouse, as currently edited
+         */
+        List<Item> items(String name, int warehouse) {
+            return buckets(name).get(warehouse);
+        }
+
+        ItemNameIndex build() {
+            if (touched.isEmpty()) return base;
+            // only the stripes of the touched names are copied
+            List<TreeMap<String, Map<Integer, List<Item>>>> edited = new ArrayList<TreeMap<String, Map<Integer, List<Item>>>>(base.stripes);
+            boolean[] copied = new boolean[STRIPES];
+            boolean sameNames = true;
+            for (Map.Entry<String, CopyOnWriteBuckets<Integer>> entry : touched.entrySet()) {
+                int stripe = stripe(entry.getKey());
+                if (!copied[stripe]) {
+                    edited.set(stripe, new TreeMap<String, Map<Integer, List<Item>>>(edited.get(stripe)));
+                    copied[stripe] = true;
+                }
+                TreeMap<String, Map<Integer, List<Item>>> names = edited.get(stripe);
+                if (entry.getValue().isEmpty()) sameNames &= names.remove(entry.getKey()) == null;
+                else sameNames &= names.put(entry.getKey(), entry.getValue().result()) != null;
+            }
+            ItemNameIndex index = new ItemNameIndex(edited);
+            if (sameNames) index.trigrams = base.trigrams;
+            return index;
+        }
+
+        private CopyOnWriteBuckets<Integer> buckets(String name) {
+            CopyOnWriteBuckets<Integer> buckets = touched.get(name);
+            if (buckets == null) {
+                Map<Integer, List<Item>> warehouses = base.warehouses(name);
+                if (warehouses == null) warehouses = Collections.emptyMap();
+                buckets = new CopyOnWriteBuckets<Integer>(warehouses, HashMap::new);
+                touched.put(name, buckets);
+            }
+            return buckets;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package main.java.data;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One page of a listing, and the cursor to the pages after it.
+ * A page is a view of a result taken from one snapshot of the stock, so nothing is copied and
+ * all pages of a listing stay consistent with each other however the stock changes meanwhile.
+ *
+ */
+public final class ItemPage implements Iterable<Item> {
+
+    private final List<Item> result;
+    private final int offset;
+    private final int end;
+    private final int limit;
+
+    private ItemPage(List<Item> result, int offset, int limit) {
+        this.result = result;
+        this.offset = Math.min(Math.max(0, offset), result.size());
+        this.end = (int) Math.min(result.size(), (long) this.offset + limit);
+        this.limit = limit;
+    }
+
+    /**
+     * Get a page of an unmodifiable result
+     *
+     * @param result
+     * @param offset the position of the first item of the page
+     * @param limit the maximum number of items per page
+     * @return
+     */
+    public static ItemPage of(List<Item> result, int offset, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        return new ItemPage(result, offset, limit);
+    }
+
+    /**
+     * Get the items of this page
+     *
+     * @return
+     */
+    public List<Item> getItems() {
+        return result.subList(offset, end);
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return getItems().iterator();
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the position after the last item of this page
+     *
+     * @return
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of items of the whole result
+     *
+     * @return
+     */
+    public int getTotal() {
+        return result.size();
+    }
+
+    public boolean hasNext() {
+        return end < result.size();
+    }
+
+    /**
+     * Get the page after this one, of the same result
+     *
+     * @return
+     */
+    public ItemPage next() {
+        return new ItemPage(result, end, limit);
+    }
+}
@@ -0,0 +1,48 @@
+package main.java.data;
+
+/**
+ * Rough object sizes on a 64-bit HotSpot JVM with compressed references, used to compare
+ * the footprint of the different stock layouts
+ *
+ */
+final class MemoryLayout {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    private MemoryLayout() {
+    }
+
+    /**
+     * Round a size up to the 8 byte object alignment
+     */
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    static long arraySize(long length, int elementSize) {
+        return align(ARRAY_HEADER + length * elementSize);
+    }
+
+    /**
+     * A String and its Latin-1 backing array
+     */
+    static long stringSize(String value) {
+        return align(OBJECT_HEADER + 4 + 1 + 1 + REFERENCE) + arraySize(value.length(), 1);
+    }
+
+    /**
+     * An Item: two string references, an int and a Date reference
+     */
+    static long itemSize() {
+        return align(OBJECT_HEADER + 3 * REFERENCE + 4);
+    }
+
+    /**
+     * A java.util.Date: a long and a reference to its lazily created calendar date
+     */
+    static long dateSize() {
+        return align(OBJECT_HEADER + 8 + REFERENCE);
+    }
+}
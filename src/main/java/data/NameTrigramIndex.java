@@ -0,0 +1,152 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trigram index over the distinct normalized item names, for searches that tolerate typos.
+ * Every name is split into the overlapping three letter parts of "  name ", and a search ranks
+ * the names by the share of parts they have in common with the searched text (Dice coefficient).
+ * Only names that share a part are looked at, and there are a few thousand names however many items.
+ *
+ */
+final class NameTrigramIndex {
+
+    private final String[] names;
+    // the number of distinct trigrams of every name
+    private final int[] trigramCounts;
+    // trigram to the positions of the names containing it
+    private final Map<Long, int[]> postings;
+
+    private NameTrigramIndex(String[] names, int[] trigramCounts, Map<Long, int[]> postings) {
+        this.names = names;
+        this.trigramCounts = trigramCounts;
+        this.postings = postings;
+    }
+
+    /**
+     * Index the given normalized names
+     *
+     * @param normalizedNames distinct names
+     * @return
+     */
+    static NameTrigramIndex of(Collection<String> normalizedNames) {
+        String[] names = normalizedNames.toArray(new String[0]);
+        int[] trigramCounts = new int[names.length];
+        Map<Long, List<Integer>> positions = new HashMap<Long, List<Integer>>();
+        for (int i = 0; i < names.length; i++) {
+            long[] trigrams = trigramsOf(names[i]);
+            trigramCounts[i] = trigrams.length;
+            for (long trigram : trigrams) {
+                positions.computeIfAbsent(trigram, key -> new ArrayList<Integer>()).add(i);
+            }
+        }
+
+        Map<Long, int[]> postings = new HashMap<Long, int[]>(positions.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : positions.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] posting = new int[list.size()];
+            for (int i = 0; i < posting.length; i++) {
+                posting[i] = list.get(i);
+            }
+            postings.put(entry.getKey(), posting);
+        }
+        return new NameTrigramIndex(names, trigramCounts, postings);
+    }
+
+    /**
+     * Find the names most similar to the given text, most similar first
+     *
+     * @param text a normalized name
+     * @param minimumSimilarity between 0 and 1, where 1 is the same set of trigrams
+     * @param limit the maximum number of names
+     * @return
+     */
+    List<Match> search(String text, double minimumSimilarity, int limit) {
+        long[] trigrams = trigramsOf(text);
+        if (trigrams.length == 0 || limit <= 0) return new ArrayList<Match>();
+
+        int[] shared = new int[names.length];
+        int[] candidates = new int[names.length];
+        int candidateCount = 0;
+        for (long trigram : trigrams) {
+            int[] posting = postings.get(trigram);
+            if (posting == null) continue;
+            for (int name : posting) {
+                if (shared[name]++ == 0) candidates[candidateCount++] = name;
+            }
+        }
+
+        // keep the best names so far sorted, most similar first
+        int[] best = new int[Math.min(limit, candidateCount)];
+        double[] bestSimilarity = new double[best.length];
+        int found = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int name = candidates[c];
+            double similarity = 2.0 * shared[name] / (trigrams.length + trigramCounts[name]);
+            if (similarity < minimumSimilarity) continue;
+            if (found == best.length && !isBetter(similarity, name, bestSimilarity[found - 1], best[found - 1])) continue;
+
+            int position = (found == best.length) ? found - 1 : found++;
+            while (position > 0 && isBetter(similarity, name, bestSimilarity[position - 1], best[position - 1])) {
+                best[position] = best[position - 1];
+                bestSimilarity[position] = bestSimilarity[position - 1];
+                position--;
+            }
+            best[position] = name;
+            bestSimilarity[position] = similarity;
+        }
+
+        List<Match> matches = new ArrayList<Match>(found);
+        for (int i = 0; i < found; i++) {
+            matches.add(new Match(names[best[i]], bestSimilarity[i]));
+        }
+        return matches;
+    }
+
+    /**
+     * Whether a name ranks before another, the more similar first and then alphabetically
+     */
+    private boolean isBetter(double similarity, int name, double otherSimilarity, int other) {
+        return (similarity != otherSimilarity) ? similarity > otherSimilarity : names[name].compareTo(names[other]) < 0;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * The distinct trigrams of "  text ", every one packed into a long of three chars
+     */
+    static long[] trigramsOf(String text) {
+        if (text.isEmpty()) return new long[0];
+        String padded = "  " + text + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) trigrams[distinct++] = trigrams[i];
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * A name and its similarity to the searched text
+     */
+    static final class Match {
+        final String name;
+        final double similarity;
+
+        Match(String name, double similarity) {
+            this.name = name;
+            this.similarity = similarity;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Places orders against the StockRepository.
+ * Items are picked from the warehouse with the maximum availability first and, within a warehouse,
+ * oldest date of stock first. Picking runs on a snapshot without locks; the picked items are then
+ * removed in one short repository write that fails if any of them was sold in the meantime,
+ * in which case the order is picked again from the new stock.
+ *
+ */
+public class OrderService {
+
+    private static final int MAX_ATTEMPTS = 16;
+
+    private static final Comparator<Item> OLDEST_FIRST = Comparator.comparingLong(StockAgeIndex::epochMillis);
+    private static final Comparator<Item> NEWEST_FIRST = OLDEST_FIRST.reversed();
+
+    private static final LongAdder CONFLICTS = new LongAdder();
+
+    /**
+     * Signals that picked items were no longer in stock when the order was applied
+     */
+    private static final class Conflict extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Conflict() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Reserve the given amount of an item
+     *
+     * @param itemName the name of the item, "state category"
+     * @param amount
+     * @return the reservation, or null if there are not enough items in stock
+     */
+    public static Reservation reserve(String itemName, int amount) {
+        if (amount <= 0) throw new IllegalArgumentException("Amount must be positive: " + amount);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            List<Item> picked = pick(StockRepository.snapshot(), itemName, amount);
+            if (picked == null) return null;
+            try {
+                // only the warehouses the items are picked from are locked
+                StockRepository.update(StockRepository.warehousesOf(picked), stock -> {
+                    if (stock.removeAll(picked) != picked.size()) throw new Conflict();
+                    return null;
+                });
+                return new Reservation(itemName, picked);
+            } catch (Conflict e) {
+                CONFLICTS.increment();
+            }
+        }
+
+        // heavily contended item: pick and remove while holding the whole stock
+        return StockRepository.update(stock -> {
+            List<Item> picked = pick(StockRepository.snapshot(), itemName, amount);
+            if (picked == null) return null;
+            stock.removeAll(picked);
+            return new Reservation(itemName, picked);
+        });
+    }
+
+    /**
+     * Reserve and commit an order in one step
+     *
+     * @param itemName the name of the item, "state category"
+     * @param amount
+     * @return the committed reservation, or null if there are not enough items in stock
+     */
+    public static Reservation placeOrder(String itemName, int amount) {
+        Reservation reservation = reserve(itemName, amount);
+        if (reservation != null) reservation.commit();
+        return reservation;
+    }
+
+    /**
+     * The number of orders that had to be picked again because their items were sold concurrently
+     *
+     * @return
+     */
+    public static long getConflicts() {
+        return CONFLICTS.sum();
+    }
+
+    /**
+     * Choose the items for an order from a snapshot
+     *
+     * @return the items, or null if there are not enough
+     */
+    static List<Item> pick(StockSnapshot stock, String itemName, int amount) {
+        List<Map.Entry<Integer, List<Item>>> warehouses = new ArrayList<Map.Entry<Integer, List<Item>>>(
+                stock.getItemsByName(itemName).entrySet());
+        int available = 0;
+        for (Map.Entry<Integer, List<Item>> warehouse : warehouses) {
+            available += warehouse.getValue().size();
+        }
+        if (available < amount) return null;
+
+        // maximum availability first, the lower warehouse ID on a tie
+        warehouses.sort((a, b) -> (a.getValue().size() != b.getValue().size())
+                ? Integer.compare(b.getValue().size(), a.getValue().size())
+                : Integer.compare(a.getKey(), b.getKey()));
+
+        List<Item> picked = new ArrayList<Item>(amount);
+        for (Map.Entry<Integer, List<Item>> warehouse : warehouses) {
+            picked.addAll(oldest(warehouse.getValue(), amount - picked.size()));
+            if (picked.size() == amount) break;
+        }
+        return picked;
+    }
+
+    /**
+     * Select the oldest items of a bucket without sorting all of it
+     *
+     * @param items
+     * @param count
+     * @return at most count items, oldest first
+     */
+    static List<Item> oldest(List<Item> items, int count) {
+        List<Item> selected;
+        if (count >= items.size()) {
+            selected = new ArrayList<Item>(items);
+        } else {
+            // the newest of the oldest items seen so far is on top, to be replaced by an older one
+            PriorityQueue<Item> heap = new PriorityQueue<Item>(count, NEWEST_FIRST);
+            for (Item item : items) {
+                if (heap.size() < count) heap.add(item);
+                else if (OLDEST_FIRST.compare(item, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(item);
+                }
+            }
+            selected = new ArrayList<Item>(heap);
+        }
+        selected.sort(OLDEST_FIRST);
+        return selected;
+    }
+}
@@ -0,0 +1,195 @@
+package main.java.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a very large stock.json file on several cores. The file is split into chunks at record
+ * boundaries, every chunk is memory-mapped and parsed by a worker thread, and the results are
+ * concatenated in file order: into columns by load(), where a record costs 20 bytes of primitives,
+ * or into items by loadItems(), which the stock repository reads its file with.
+ *
+ */
+public final class ParallelStockLoader {
+
+    // chunks per thread, so that a thread finishing early takes over part of the work
+    private static final int CHUNKS_PER_THREAD = 4;
+    // a mapped buffer holds at most 2 GB, chunks are split well below
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    // about the size of a stock.json record, to size the columns of a chunk up front
+    private static final int RECORD_SIZE_ESTIMATE = 96;
+    // files below this size are read on one thread, splitting them costs more than it saves
+    static final long MIN_PARALLEL_SIZE = 4L << 20;
+
+    private ParallelStockLoader() {
+    }
+
+    /**
+     * Parses the records of one chunk with StockJsonReader.readPart()
+     */
+    private interface ChunkParser<T> {
+        /**
+         * @param reader reads the bytes of the chunk
+         * @param length the size of the chunk in bytes
+         * @param first whether the chunk starts the file
+         * @param last whether the chunk ends the file
+         */
+        T parse(StockJsonReader reader, long length, boolean first, boolean last) throws IOException;
+    }
+
+    /**
+     * Load a stock.json file with one thread per core
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarStockStore load(String path) throws IOException {
+        return load(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Load a stock.json file with the given number of threads. If a chunk cannot be parsed, e.g. because
+     * a boundary was found inside a string value, the file is read again on one thread, which reports
+     * a real error at its position.
+     *
+     * @param path
+     * @param threads
+     * @return
+     * @throws IOException
+     */
+    public static ColumnarStockStore load(String path, int threads) throws IOException {
+        try {
+            return ColumnarStockStore.concat(readChunks(path, threads, (reader, length, first, last) -> {
+                ColumnarStockStore store = new ColumnarStockStore((int) (length / RECORD_SIZE_ESTIMATE));
+                reader.readPart(store, first, last);
+                return store;
+            }));
+        } catch (ExecutionException e) {
+            return ColumnarStockStore.load(path);
+        }
+    }
+
+    /**
+     * Read all items of a stock.json file, a file of at least MIN_PARALLEL_SIZE in chunks on all cores.
+     * The items keep the order of the file. If a chunk cannot be parsed, e.g. because a boundary was found
+     * inside a string value, the file is read again on one thread, which reports a real error at its position.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static List<Item> loadItems(String path) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads < 2 || new File(path).length() < MIN_PARALLEL_SIZE) return StockJsonReader.readItems(path);
+
+        List<List<Item>> chunks;
+        try {
+            chunks = readChunks(path, threads, (reader, length, first, last) -> {
+                List<Item> items = new ArrayList<Item>((int) (length / RECORD_SIZE_ESTIMATE));
+                reader.readPart((state, category, warehouse, epochSecond)
+                        -> items.add(StockJsonReader.newItem(state, category, warehouse, epochSecond)), first, last);
+                return items;
+            });
+        } catch (ExecutionException e) {
+            return StockJsonReader.readItems(path);
+        }
+        int size = 0;
+        for (List<Item> chunk : chunks) {
+            size += chunk.size();
+        }
+        List<Item> items = new ArrayList<Item>(size);
+        for (List<Item> chunk : chunks) {
+            items.addAll(chunk);
+        }
+        return items;
+    }
+
+    /**
+     * Split a stock.json file into chunks at record boundaries and parse them on the given number of threads
+     *
+     * @param path
+     * @param threads
+     * @param parser
+     * @return the results of the chunks, in file order
+     * @throws IOException
+     * @throws ExecutionException if a chunk cannot be parsed
+     */
+    private static <T> List<T> readChunks(String path, int threads, ChunkParser<T> parser) throws IOException, ExecutionException {
+        if (threads <= 0) throw new IllegalArgumentException("Threads must be positive: " + threads);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "stock-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int parts = (int) Math.max((long) threads * CHUNKS_PER_THREAD, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            long[] bounds = StockJsonReader.recordBoundaries(channel, parts);
+
+            List<Future<T>> chunks = new ArrayList<Future<T>>(bounds.length - 1);
+            for (int i = 0; i < bounds.length - 1; i++) {
+                int chunk = i;
+                chunks.add(workers.submit(() -> readChunk(channel, bounds, chunk, parser)));
+            }
+            List<T> results = new ArrayList<T>(chunks.size());
+            for (Future<T> chunk : chunks) {
+                results.add(chunk.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + path, e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static <T> T readChunk(FileChannel channel, long[] bounds, int chunk, ChunkParser<T> parser) throws IOException {
+        long start = bounds[chunk];
+        long length = bounds[chunk + 1] - start;
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        InputStream in = new ByteBufferInputStream(buffer);
+        try (StockJsonReader reader = new StockJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return parser.parse(reader, length, chunk == 0, chunk == bounds.length - 2);
+        }
+    }
+
+    /**
+     * The remaining bytes of a buffer
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package main.java.data;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A salted PBKDF2 password hash. The encoded form is "pbkdf2-sha256$iterations$salt$hash"
+ * with salt and hash in Base64.
+ *
+ */
+public final class PasswordHash {
+
+    static final int DEFAULT_ITERATIONS = 65536;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * Hash a password with a new random salt
+     *
+     * @param password
+     * @return
+     */
+    public static PasswordHash of(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(DEFAULT_ITERATIONS, salt, derive(password, salt, DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * Read a hash from its encoded form
+     *
+     * @param encoded
+     * @return
+     */
+    public static PasswordHash decode(String encoded) {
+        String[] parts = encoded.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(PREFIX)) {
+            throw new IllegalArgumentException("Not a " + PREFIX + " password hash");
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        return new PasswordHash(Integer.parseInt(parts[1]), decoder.decode(parts[2]), decoder.decode(parts[3]));
+    }
+
+    public String encode() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Check a password against this hash, in time independent of where they differ.
+     * This is deliberately expensive.
+     *
+     * @param password
+     * @return
+     */
+    public boolean matches(String password) {
+        return MessageDigest.isEqual(hash, derive(password, salt, iterations));
+    }
+
+    /**
+     * A cheap salted fingerprint of a password, used to recognize a password that was verified
+     * recently without running the expensive hash again
+     *
+     * @param password
+     * @return
+     */
+    byte[] fingerprint(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(hash);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return PREFIX + "$" + iterations + "$...";
+    }
+
+    /**
+     * Print the encoded hash of a password, for personnel.json: PasswordHash [password]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        System.out.println(of(args[0]).encode());
+    }
+}
@@ -1,7 +1,5 @@
 package main.java.data;
 
-import java.util.Date;
-
 /**
  * This details of a Person
  * @author pujanov
@@ -13,9 +11,9 @@ public class Person {
      */
     private String userName;
     /**
-     * Password of the Person
+     * Salted hash of the Person's password, the password itself is never kept
      */
-    private String password;
+    private PasswordHash passwordHash;
 
 
     public String getUserName() {
@@ -26,12 +24,21 @@ public class Person {
         this.userName = userName;
     }
 
-    public String getPassword() {
-        return password;
+    public PasswordHash getPasswordHash() {
+        return passwordHash;
+    }
+
+    public void setPasswordHash(PasswordHash passwordHash) {
+        this.passwordHash = passwordHash;
     }
 
+    /**
+     * Set the password, only its salted hash is stored
+     *
+     * @param password
+     */
     public void setPassword(String password) {
-        this.password = password;
+        this.passwordHash = PasswordHash.of(password);
     }
 
 
@@ -39,7 +46,7 @@ public class Person {
     public String toString() {
         return "Person{" +
                 "userName='" + userName + '\'' +
-                ", password='" + password + '\'' +
+                ", passwordHash=" + passwordHash +
                 '}';
     }
 }
@@ -1,5 +1,8 @@
 package main.java.data;
 
+import main.java.metrics.Counter;
+import main.java.metrics.Metrics;
+import main.java.metrics.Timer;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -7,11 +10,19 @@ import org.json.simple.JSONValue;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The Data Repository
@@ -21,42 +32,137 @@ import java.util.Set;
  */
 public class PersonnelRepository {
 
-    private static List<Person> PERSON_LIST = new ArrayList<Person>();
+    static final String PERSONNEL_FILE = "src/main/resources/personnel.json";
+
+    // Persons by user name
+    private static final Map<String, Person> PERSONS = new ConcurrentHashMap<String, Person>();
+
+    // Password checks run on a small bounded pool, so a login storm queues up there
+    // instead of occupying every request thread with hashing
+    private static final int VERIFIER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int VERIFIER_QUEUE = 256;
+    private static final long VERIFY_TIMEOUT_SECONDS = 10;
+    private static final ExecutorService VERIFIER = new ThreadPoolExecutor(VERIFIER_THREADS, VERIFIER_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(VERIFIER_QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "password-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Recently verified logins: user name to the fingerprint of the verified password
+    private static final long VERIFIED_TTL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final Map<String, VerifiedLogin> VERIFIED = new ConcurrentHashMap<String, VerifiedLogin>();
+
+    // Persons loaded from a plaintext password: user name to the fingerprint of that password under the
+    // person's hash, so a reload recognizes an unchanged password although hashing it again gives a new salt
+    private static final Map<String, byte[]> PLAINTEXT_SOURCES = new ConcurrentHashMap<String, byte[]>();
+
+    // logins are rare next to stock reads and a hashed one takes milliseconds, so every call is timed
+    private static final Timer IS_USER_VALID = Metrics.timer("personnel.isUserValid");
+    // logins that needed the password hashed, the others were verified recently and are not counted
+    // because a counter update costs more than checking them
+    private static final Counter HASHED_LOGINS = Metrics.counter("personnel.isUserValid.hashed");
+    private static final Counter REJECTED_LOGINS = Metrics.counter("personnel.isUserValid.rejected");
+    private static final Counter OVERLOADED_LOGINS = Metrics.counter("personnel.isUserValid.overloaded");
 
     /**
-     * Load item records from the stock.json file
+     * Load person records from the personnel.json file
      */
     static {
         // System.out.println("Loading items");
-        BufferedReader reader = null;
         try {
-            PERSON_LIST.clear();
+            Map<String, String> passwords = new HashMap<String, String>();
+            for (Person person : loadPersons(PERSONNEL_FILE, passwords).values()) {
+                PERSONS.put(person.getUserName(), person);
+                rememberSource(person, passwords.get(person.getUserName()));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            reader = new BufferedReader(new FileReader("src/main/resources/personnel.json"));
+    /**
+     * Read all persons of a personnel file
+     *
+     * @param path
+     * @param passwords receives the passwords of the persons given in plaintext by user name, may be null
+     * @return persons by user name
+     * @throws IOException
+     */
+    static Map<String, Person> loadPersons(String path, Map<String, String> passwords) throws IOException {
+        Map<String, Person> persons = new HashMap<String, Person>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
             Object data = JSONValue.parse(reader);
-            if (data instanceof JSONArray) {
-                JSONArray dataArray = (JSONArray) data;
-                for (Object obj : dataArray) {
-                    if (obj instanceof JSONObject) {
-                        JSONObject jsonData = (JSONObject) obj;
-                        Person person = new Person();
-                        person.setUserName(jsonData.get("user_name").toString());
-                        person.setPassword(jsonData.get("password").toString());
-                        //person.setHeadOf((Person) jsonData.getOrDefault("head_of", null));
-                        PERSON_LIST.add(person);
+            if (!(data instanceof JSONArray)) throw new IOException("Not a list of persons: " + path);
+            JSONArray dataArray = (JSONArray) data;
+            for (Object obj : dataArray) {
+                if (obj instanceof JSONObject) {
+                    JSONObject jsonData = (JSONObject) obj;
+                    Person person = new Person();
+                    person.setUserName(jsonData.get("user_name").toString());
+                    if (jsonData.containsKey("password_hash")) {
+                        person.setPasswordHash(PasswordHash.decode(jsonData.get("password_hash").toString()));
+                    } else {
+                        String password = jsonData.get("password").toString();
+                        person.setPassword(password);
+                        if (passwords != null) passwords.put(person.getUserName(), password);
                     }
+                    //person.setHeadOf((Person) jsonData.getOrDefault("head_of", null));
+                    persons.put(person.getUserName(), person);
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
+        }
+        return persons;
+    }
+
+    /**
+     * Read the personnel file again and apply the difference: persons that are gone are removed,
+     * persons with another password are replaced, everyone else stays untouched.
+     * Passwords are compared as given in the file, a plaintext password is not hashed again to compare it.
+     *
+     * @return the number of persons added, changed or removed
+     * @throws IOException
+     */
+    public static int reload() throws IOException {
+        Map<String, String> passwords = new HashMap<String, String>();
+        Map<String, Person> persons = loadPersons(PERSONNEL_FILE, passwords);
+        int changed = 0;
+        for (String userName : PERSONS.keySet()) {
+            if (!persons.containsKey(userName)) {
+                PERSONS.remove(userName);
+                VERIFIED.remove(userName);
+                PLAINTEXT_SOURCES.remove(userName);
+                changed++;
+            }
+        }
+        for (Person person : persons.values()) {
+            String password = passwords.get(person.getUserName());
+            if (!isUnchanged(PERSONS.get(person.getUserName()), person, password)) {
+                addPerson(person);
+                rememberSource(person, password);
+                changed++;
             }
         }
+        return changed;
+    }
+
+    /**
+     * Check whether a person read from the file has the same password entry as the current person
+     *
+     * @param current the person in the repository, may be null
+     * @param loaded the person read from the file
+     * @param password the plaintext password of the file entry, null if it gives a password hash
+     * @return
+     */
+    private static boolean isUnchanged(Person current, Person loaded, String password) {
+        if (current == null || current.getPasswordHash() == null) return false;
+        if (password == null) return current.getPasswordHash().encode().equals(loaded.getPasswordHash().encode());
+        byte[] source = PLAINTEXT_SOURCES.get(current.getUserName());
+        return source != null && MessageDigest.isEqual(source, current.getPasswordHash().fingerprint(password));
+    }
+
+    private static void rememberSource(Person person, String password) {
+        if (password != null) PLAINTEXT_SOURCES.put(person.getUserName(), person.getPasswordHash().fingerprint(password));
     }
 
     /**
@@ -65,15 +171,81 @@ public class PersonnelRepository {
      * @return
      */
     public static List<Person> getAllPersons() {
-        return PERSON_LIST;
+        return new ArrayList<Person>(PERSONS.values());
     }
 
+    /**
+     * Add a person to the repository, replacing a person with the same user name
+     *
+     * @param person
+     */
+    public static void addPerson(Person person) {
+        PERSONS.put(person.getUserName(), person);
+        VERIFIED.remove(person.getUserName());
+        PLAINTEXT_SOURCES.remove(person.getUserName());
+    }
 
+    /**
+     * Check a user's credentials. A password verified within the last minutes is recognized
+     * by a cheap fingerprint; otherwise the salted hash is checked on the verifier pool.
+     *
+     * @param userName
+     * @param password
+     * @return false as well when the verifier is overloaded
+     */
     public static boolean isUserValid(String userName, String password) {
-        for (Person person : PERSON_LIST) {
-            if (person.getUserName().equals(userName) && person.getPassword().equals(password)) return true;
+        long start = IS_USER_VALID.start();
+        try {
+            boolean valid = verify(userName, password);
+            if (!valid) REJECTED_LOGINS.increment();
+            return valid;
+        } finally {
+            IS_USER_VALID.stop(start);
         }
-        return false;
     }
 
-}
\ No newline at end of file
+    private static boolean verify(String userName, String password) {
+        if (userName == null || password == null) return false;
+        Person person = PERSONS.get(userName);
+        if (person == null || person.getPasswordHash() == null) return false;
+        PasswordHash hash = person.getPasswordHash();
+
+        VerifiedLogin verified = VERIFIED.get(userName);
+        if (verified != null && verified.isValid(hash, password)) return true;
+
+        HASHED_LOGINS.increment();
+        try {
+            boolean valid = VERIFIER.submit(() -> hash.matches(password)).get(VERIFY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (valid) VERIFIED.put(userName, new VerifiedLogin(hash, password));
+            return valid;
+        } catch (RejectedExecutionException | TimeoutException e) {
+            OVERLOADED_LOGINS.increment();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A password that was verified recently
+     */
+    private static final class VerifiedLogin {
+        private final PasswordHash hash;
+        private final byte[] fingerprint;
+        private final long expiresAt;
+
+        VerifiedLogin(PasswordHash hash, String password) {
+            this.hash = hash;
+            this.fingerprint = hash.fingerprint(password);
+            this.expiresAt = System.currentTimeMillis() + VERIFIED_TTL_MILLIS;
+        }
+
+        boolean isValid(PasswordHash current, String password) {
+            return current == hash && System.currentTimeMillis() < expiresAt
+                    && MessageDigest.isEqual(fingerprint, hash.fingerprint(password));
+        }
+    }
+}
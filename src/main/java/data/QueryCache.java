@@ -0,0 +1,218 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of query results, approximately least recently used entries are evicted first and every entry
+ * expires after a fixed time. Lookups do not lock: entries sit in a concurrent map and remember when they were
+ * last used, and the thread that grows the cache past its size evicts the least recently used tenth in one pass.
+ * Entries are invalidated per key when the stock behind them changes. A result computed while its key
+ * was being invalidated is not stored: every lookup takes a stamp of the invalidation version before
+ * reading the stock, and an invalidation leaves a marker with its version that rejects older results.
+ * Markers are kept apart from the entries; when there are more of them than the cache size they are all dropped
+ * and the results of the lookups still running are not stored.
+ *
+ */
+public final class QueryCache<K, V> {
+
+    private static final long USE_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final Map<K, Cached<V>> entries = new ConcurrentHashMap<K, Cached<V>>();
+    // the version of the last invalidation per key
+    private final Map<K, Long> markers = new ConcurrentHashMap<K, Long>();
+    private final AtomicLong version = new AtomicLong();
+    // results stamped before this version are not stored, set by invalidateAll() and by dropping the markers
+    private final AtomicLong floor = new AtomicLong();
+    // held by the thread evicting, the others go on without waiting for it
+    private final ReentrantLock eviction = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QueryCache(int maximumSize, long timeToLive, TimeUnit unit) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+    }
+
+    /**
+     * Get the cached result for a key, or compute and cache it
+     *
+     * @param key
+     * @param query computes the result from the current stock
+     * @return
+     */
+    public V get(K key, Function<K, V> query) {
+        long now = System.nanoTime();
+        long stamp = version.get();
+        Cached<V> entry = entries.get(key);
+        if (entry != null) {
+            if (now - entry.created < timeToLiveNanos) {
+                // a hot entry is not written on every hit, its last use only has to be about right
+                if (now - entry.used > USE_RESOLUTION_NANOS) entry.used = now;
+                hits.increment();
+                return entry.value;
+            }
+            expirations.increment();
+            entries.remove(key, entry);
+        }
+
+        misses.increment();
+        V value = query.apply(key);
+        if (isCurrent(key, stamp)) {
+            Cached<V> computed = new Cached<V>(value, now);
+            entries.put(key, computed);
+            // an invalidation between the check and the put either removed the result or left a marker seen here
+            if (!isCurrent(key, stamp)) entries.remove(key, computed);
+            else if (entries.size() > maximumSize) evict();
+        }
+        return value;
+    }
+
+    /**
+     * Drop the result of a key, its stock has changed
+     *
+     * @param key
+     */
+    public void invalidate(K key) {
+        long invalidated = version.incrementAndGet();
+        markers.put(key, invalidated);
+        entries.remove(key);
+        if (markers.size() > maximumSize) {
+            floor.accumulateAndGet(invalidated, Math::max);
+            markers.clear();
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * Drop all results
+     */
+    public void invalidateAll() {
+        long invalidated = version.incrementAndGet();
+        floor.accumulateAndGet(invalidated, Math::max);
+        entries.clear();
+        markers.clear();
+        invalidations.increment();
+    }
+
+    /**
+     * Whether a result computed from the stock at the given stamp may still be stored
+     */
+    private boolean isCurrent(K key, long stamp) {
+        if (stamp < floor.get()) return false;
+        Long invalidated = markers.get(key);
+        return invalidated == null || invalidated <= stamp;
+    }
+
+    /**
+     * Remove the least recently used tenth of the entries, unless another thread is at it already
+     */
+    private void evict() {
+        if (!eviction.tryLock()) return;
+        try {
+            int excess = entries.size() - maximumSize;
+            if (excess <= 0) return;
+            // the last uses are read once, they keep changing while the candidates are sorted
+            List<Candidate<K, V>> candidates = new ArrayList<Candidate<K, V>>(entries.size());
+            for (Map.Entry<K, Cached<V>> entry : entries.entrySet()) {
+                candidates.add(new Candidate<K, V>(entry.getKey(), entry.getValue()));
+            }
+            candidates.sort((a, b) -> Long.compare(a.used, b.used));
+            int count = Math.min(candidates.size(), excess + maximumSize / 10);
+            for (int i = 0; i < count; i++) {
+                if (entries.remove(candidates.get(i).key, candidates.get(i).entry)) evictions.increment();
+            }
+        } finally {
+            eviction.unlock();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Get the share of lookups answered from the cache
+     *
+     * @return
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size %d/%d, hits %d, misses %d (%.1f%% hit rate), evictions %d, expirations %d, invalidations %d",
+                size(), maximumSize, getHits(), getMisses(), getHitRate() * 100, getEvictions(), getExpirations(), getInvalidations());
+    }
+
+    /**
+     * An entry considered for eviction, with its last use at the time
+     */
+    private static final class Candidate<K, V> {
+        final K key;
+        final Cached<V> entry;
+        final long used;
+
+        Candidate(K key, Cached<V> entry) {
+            this.key = key;
+            this.entry = entry;
+            this.used = entry.used;
+        }
+    }
+
+    /**
+     * A cached result and when it was last used
+     */
+    private static final class Cached<V> {
+        final V value;
+        final long created;
+        volatile long used;
+
+        Cached(V value, long created) {
+            this.value = value;
+            this.created = created;
+            this.used = created;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package main.java.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The moves that bring the stock of every category to its target distribution over the warehouses
+ *
+ */
+public final class RebalancePlan {
+
+    private final StockSnapshot stock;
+    private final List<Transfer> transfers;
+    private final int itemCount;
+
+    RebalancePlan(StockSnapshot stock, List<Transfer> transfers) {
+        this.stock = stock;
+        this.transfers = Collections.unmodifiableList(transfers);
+        int count = 0;
+        for (Transfer transfer : transfers) {
+            count += transfer.amount;
+        }
+        this.itemCount = count;
+    }
+
+    /**
+     * Get the snapshot of the stock the plan was computed on
+     *
+     * @return
+     */
+    StockSnapshot getStock() {
+        return stock;
+    }
+
+    /**
+     * Get the moves, grouped by category
+     *
+     * @return
+     */
+    public List<Transfer> getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * Get the number of items the plan moves
+     *
+     * @return
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public boolean isEmpty() {
+        return transfers.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d items in %,d transfers", itemCount, transfers.size());
+    }
+
+    /**
+     * A number of items of one category to move from one warehouse to another
+     */
+    public static final class Transfer {
+        private final String category;
+        private final int fromWarehouse;
+        private final int toWarehouse;
+        private final int amount;
+
+        Transfer(String category, int fromWarehouse, int toWarehouse, int amount) {
+            this.category = category;
+            this.fromWarehouse = fromWarehouse;
+            this.toWarehouse = toWarehouse;
+            this.amount = amount;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public int getFromWarehouse() {
+            return fromWarehouse;
+        }
+
+        public int getToWarehouse() {
+            return toWarehouse;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return amount + " x " + category + ": Warehouse " + fromWarehouse + " -> Warehouse " + toWarehouse;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Plans and applies moves of stock between warehouses so that every category is spread over
+ * the warehouses by a target share per warehouse.
+ * Planning works on the counts per warehouse that the snapshot keeps for every category and never
+ * looks at the items: the targets are distributed by largest remainder and the largest
+ * surpluses are matched with the largest deficits, which needs fewer than one transfer per warehouse.
+ * A plan is applied as one repository change, so readers see either none or all of its moves.
+ *
+ */
+public class RebalancePlanner {
+
+    private static final int MAX_ATTEMPTS = 16;
+
+    private static final LongAdder CONFLICTS = new LongAdder();
+
+    /**
+     * Signals that picked items were no longer in stock when the plan was applied
+     */
+    private static final class Conflict extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Conflict() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Target shares that spread every category evenly over the warehouses of the stock
+     *
+     * @param stock
+     * @return shares per warehouse by category
+     */
+    public static Map<String, Map<Integer, Double>> evenShares(StockSnapshot stock) {
+        Map<Integer, Double> shares = new TreeMap<Integer, Double>();
+        for (int warehouse : stock.getWarehouses()) {
+            shares.put(warehouse, 1.0);
+        }
+        Map<String, Map<Integer, Double>> targets = new TreeMap<String, Map<Integer, Double>>();
+        for (String category : stock.getCategories()) {
+            targets.put(category, shares);
+        }
+        return targets;
+    }
+
+    /**
+     * Plan the moves for the current stock
+     *
+     * @param targetShares per category, the share of its items every warehouse should hold
+     * @return
+     */
+    public static RebalancePlan plan(Map<String, Map<Integer, Double>> targetShares) {
+        return plan(StockRepository.snapshot(), targetShares);
+    }
+
+    /**
+     * Plan the moves that give every category of the targets the target distribution. Shares are relative
+     * weights, a warehouse without a share gets none of the category; other categories are not moved.
+     *
+     * @param stock
+     * @param targetShares per category, the share of its items every warehouse should hold
+     * @return
+     */
+    public static RebalancePlan plan(StockSnapshot stock, Map<String, Map<Integer, Double>> targetShares) {
+        TreeSet<Integer> allWarehouses = new TreeSet<Integer>(stock.getWarehouses());
+        Map<String, String> categoryKeys = new HashMap<String, String>();
+        for (Map.Entry<String, Map<Integer, Double>> target : targetShares.entrySet()) {
+            String previous = categoryKeys.put(StockSnapshot.categoryKey(target.getKey()), target.getKey());
+            if (previous != null) throw new IllegalArgumentException("Category given twice: " + previous + ", " + target.getKey());
+            double sum = 0;
+            for (Map.Entry<Integer, Double> share : target.getValue().entrySet()) {
+                if (share.getKey() <= 0) throw new IllegalArgumentException("Warehouse must be a positive number: " + share.getKey());
+                if (!(share.getValue() >= 0)) throw new IllegalArgumentException("Share must not be negative: " + share.getValue());
+                sum += share.getValue();
+            }
+            if (!(sum > 0)) throw new IllegalArgumentException("No warehouse has a share of " + target.getKey());
+            allWarehouses.addAll(target.getValue().keySet());
+        }
+
+        int[] warehouses = new int[allWarehouses.size()];
+        int position = 0;
+        for (int warehouse : allWarehouses) {
+            warehouses[position++] = warehouse;
+        }
+
+        List<String> categories = new ArrayList<String>(targetShares.keySet());
+        List<RebalancePlan.Transfer> transfers = IntStream.range(0, categories.size()).parallel()
+                .mapToObj(c -> planCategory(categories.get(c), stock.getItemCountsByWarehouse(categories.get(c)),
+                        targetShares.get(categories.get(c)), warehouses))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        return new RebalancePlan(stock, transfers);
+    }
+
+    /**
+     * Plan the moves of one category
+     *
+     * @param itemCounts the items of the category per warehouse
+     * @param warehouses all warehouse IDs, sorted
+     */
+    static List<RebalancePlan.Transfer> planCategory(String category, Map<Integer, Integer> itemCounts,
+                                                     Map<Integer, Double> shares, int[] warehouses) {
+        int[] counts = new int[warehouses.length];
+        int total = 0;
+        for (Map.Entry<Integer, Integer> count : itemCounts.entrySet()) {
+            counts[Arrays.binarySearch(warehouses, count.getKey())] = count.getValue();
+            total += count.getValue();
+        }
+        int[] targets = distribute(total, shares, warehouses);
+
+        List<Integer> surplus = new ArrayList<Integer>();
+        List<Integer> deficit = new ArrayList<Integer>();
+        int[] difference = new int[warehouses.length];
+        for (int i = 0; i < warehouses.length; i++) {
+            difference[i] = Math.abs(counts[i] - targets[i]);
+            if (counts[i] > targets[i]) surplus.add(i);
+            else if (counts[i] < targets[i]) deficit.add(i);
+        }
+        // largest first, the lower warehouse ID on a tie
+        surplus.sort((a, b) -> (difference[a] != difference[b]) ? Integer.compare(difference[b], difference[a]) : Integer.compare(a, b));
+        deficit.sort((a, b) -> (difference[a] != difference[b]) ? Integer.compare(difference[b], difference[a]) : Integer.compare(a, b));
+
+        List<RebalancePlan.Transfer> transfers = new ArrayList<RebalancePlan.Transfer>();
+        int s = 0;
+        int d = 0;
+        while (s < surplus.size() && d < deficit.size()) {
+            int from = surplus.get(s);
+            int to = deficit.get(d);
+            int amount = Math.min(difference[from], difference[to]);
+            transfers.add(new RebalancePlan.Transfer(category, warehouses[from], warehouses[to], amount));
+            difference[from] -= amount;
+            difference[to] -= amount;
+            if (difference[from] == 0) s++;
+            if (difference[to] == 0) d++;
+        }
+        return transfers;
+    }
+
+    /**
+     * Split a number of items over the warehouses by their shares. Every warehouse gets the whole part of
+     * its share, the items left over go to the largest remainders.
+     *
+     * @return the target count per warehouse, indexed like the warehouses
+     */
+    static int[] distribute(int total, Map<Integer, Double> shares, int[] warehouses) {
+        double sum = 0;
+        for (double share : shares.values()) {
+            sum += share;
+        }
+        int[] targets = new int[warehouses.length];
+        double[] remainders = new double[warehouses.length];
+        int assigned = 0;
+        for (int i = 0; i < warehouses.length; i++) {
+            Double share = shares.get(warehouses[i]);
+            if (share == null) continue;
+            double exact = total * (share / sum);
+            targets[i] = (int) Math.min(Math.floor(exact), total - assigned);
+            remainders[i] = exact - targets[i];
+            assigned += targets[i];
+        }
+
+        Integer[] order = new Integer[warehouses.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (remainders[a] != remainders[b]) ? Double.compare(remainders[b], remainders[a]) : Integer.compare(a, b));
+        for (int i = 0; assigned < total; i = (i + 1) % order.length) {
+            Double share = shares.get(warehouses[order[i]]);
+            if (share == null || share == 0) continue;
+            targets[order[i]]++;
+            assigned++;
+        }
+        return targets;
+    }
+
+    /**
+     * Move the items of a plan in one repository change. The moved items are the most recently added ones
+     * of their category in the source warehouse, so older stock stays where it is. If the stock has changed
+     * since the plan was made, a transfer moves at most the items still in its source warehouse.
+     *
+     * @param plan
+     * @return the number of moved items
+     */
+    public static int apply(RebalancePlan plan) {
+        if (plan.isEmpty()) return 0;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Moves moves = pick(StockRepository.snapshot(), plan);
+            Set<Integer> warehouses = StockRepository.warehousesOf(moves.items);
+            warehouses.addAll(StockRepository.warehousesOf(moves.copies));
+            try {
+                return StockRepository.update(warehouses, stock -> {
+                    if (stock.removeAll(moves.items) < moves.items.size()) throw new Conflict();
+                    for (Item copy : moves.copies) {
+                        stock.add(copy);
+                    }
+                    return moves.items.size();
+                });
+            } catch (Conflict e) {
+                CONFLICTS.increment();
+            }
+        }
+
+        // heavily changing stock: pick and move while holding the whole stock
+        return StockRepository.update(stock -> {
+            Moves moves = pick(StockRepository.snapshot(), plan);
+            stock.removeAll(moves.items);
+            for (Item copy : moves.copies) {
+                stock.add(copy);
+            }
+            return moves.items.size();
+        });
+    }
+
+    /**
+     * The number of plans that had to be picked again because their items changed concurrently
+     *
+     * @return
+     */
+    public static long getConflicts() {
+        return CONFLICTS.sum();
+    }
+
+    /**
+     * Choose the items to move from a snapshot, every category in parallel
+     */
+    static Moves pick(StockSnapshot stock, RebalancePlan plan) {
+        Map<String, List<RebalancePlan.Transfer>> byCategory = new LinkedHashMap<String, List<RebalancePlan.Transfer>>();
+        for (RebalancePlan.Transfer transfer : plan.getTransfers()) {
+            byCategory.computeIfAbsent(StockSnapshot.categoryKey(transfer.getCategory()),
+                    key -> new ArrayList<RebalancePlan.Transfer>()).add(transfer);
+        }
+        List<List<RebalancePlan.Transfer>> categories = new ArrayList<List<RebalancePlan.Transfer>>(byCategory.values());
+        List<Moves> picked = IntStream.range(0, categories.size()).parallel()
+                .mapToObj(c -> pickCategory(stock, categories.get(c)))
+                .collect(Collectors.toList());
+
+        Moves moves = new Moves(plan.getItemCount());
+        for (Moves category : picked) {
+            moves.items.addAll(category.items);
+            moves.copies.addAll(category.copies);
+        }
+        return moves;
+    }
+
+    /**
+     * Choose the items of the transfers of one category, scanning its items once from the most recent
+     */
+    private static Moves pickCategory(StockSnapshot stock, List<RebalancePlan.Transfer> transfers) {
+        TreeMap<Integer, List<RebalancePlan.Transfer>> bySource = new TreeMap<Integer, List<RebalancePlan.Transfer>>();
+        int wanted = 0;
+        for (RebalancePlan.Transfer transfer : transfers) {
+            bySource.computeIfAbsent(transfer.getFromWarehouse(), key -> new ArrayList<RebalancePlan.Transfer>()).add(transfer);
+            wanted += transfer.getAmount();
+        }
+        int[] sources = new int[bySource.size()];
+        List<List<RebalancePlan.Transfer>> queues = new ArrayList<List<RebalancePlan.Transfer>>(bySource.size());
+        int position = 0;
+        for (Map.Entry<Integer, List<RebalancePlan.Transfer>> entry : bySource.entrySet()) {
+            sources[position++] = entry.getKey();
+            queues.add(entry.getValue());
+        }
+        // per source the transfer being filled and how many items it has got
+        int[] current = new int[sources.length];
+        int[] taken = new int[sources.length];
+
+        Moves moves = new Moves(wanted);
+        List<Item> items = stock.getItemsByCategory(transfers.get(0).getCategory());
+        for (int i = items.size() - 1; i >= 0 && moves.items.size() < wanted; i--) {
+            Item item = items.get(i);
+            int source = Arrays.binarySearch(sources, item.getWarehouse());
+            if (source < 0 || current[source] == queues.get(source).size()) continue;
+
+            RebalancePlan.Transfer transfer = queues.get(source).get(current[source]);
+            moves.items.add(item);
+            moves.copies.add(StockRepository.copyOf(item, transfer.getToWarehouse()));
+            if (++taken[source] == transfer.getAmount()) {
+                current[source]++;
+                taken[source] = 0;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Items to move and their copies in the target warehouses, at the same positions
+     */
+    static final class Moves {
+        final List<Item> items;
+        final List<Item> copies;
+
+        Moves(int capacity) {
+            this.items = new ArrayList<Item>(capacity);
+            this.copies = new ArrayList<Item>(capacity);
+        }
+    }
+
+    /**
+     * Spread every category evenly over the warehouses: RebalancePlanner [--apply]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        boolean apply = args.length > 0 && args[0].equals("--apply");
+        StockSnapshot stock = StockRepository.snapshot();
+        long start = System.nanoTime();
+        RebalancePlan plan = plan(stock, evenShares(stock));
+        System.out.printf("%s planned over %,d items in %,d ms\n", plan, stock.size(), (System.nanoTime() - start) / 1_000_000);
+        for (RebalancePlan.Transfer transfer : plan.getTransfers()) {
+            System.out.println("- " + transfer);
+        }
+        if (apply && !StockRepository.isPersistent()) {
+            System.out.println("Nothing moved, the stock changes cannot be saved");
+        } else if (apply) {
+            start = System.nanoTime();
+            int moved = apply(plan);
+            System.out.printf("%,d items moved in %,d ms\n", moved, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package main.java.data;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the stock and the personnel in the background, each on its own thread, while the application
+ * starts up. The repositories load when their classes are initialized, so code that uses a repository
+ * before it is ready simply waits for the load to finish, and code that does not use it never waits.
+ *
+ */
+public final class RepositoryBootstrap {
+
+    private static CompletableFuture<Void> stock;
+    private static CompletableFuture<Void> personnel;
+
+    private RepositoryBootstrap() {
+    }
+
+    /**
+     * Start loading both repositories, unless that has already been started
+     *
+     * @return completes when both repositories are loaded
+     */
+    public static synchronized CompletableFuture<Void> start() {
+        if (stock == null) {
+            stock = CompletableFuture.runAsync(() -> StockRepository.snapshot(), thread("stock-loader"));
+            personnel = CompletableFuture.runAsync(() -> PersonnelRepository.getAllPersons(), thread("personnel-loader"));
+        }
+        return CompletableFuture.allOf(stock, personnel);
+    }
+
+    /**
+     * Get the loading of the stock, started if it has not been
+     *
+     * @return
+     */
+    public static synchronized CompletableFuture<Void> stock() {
+        start();
+        return stock;
+    }
+
+    /**
+     * Get the loading of the personnel, started if it has not been
+     *
+     * @return
+     */
+    public static synchronized CompletableFuture<Void> personnel() {
+        start();
+        return personnel;
+    }
+
+    /**
+     * Run a task on a new daemon thread, a load must not keep the application from exiting
+     */
+    private static Executor thread(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            thread.start();
+        };
+    }
+}
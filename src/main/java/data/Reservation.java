@@ -0,0 +1,72 @@
+package main.java.data;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items taken out of the available stock for an order.
+ * A reservation is either committed, which makes the removal final, or cancelled,
+ * which puts the items back into the stock.
+ *
+ */
+public class Reservation {
+
+    public enum Status { RESERVED, COMMITTED, CANCELLED }
+
+    private final String itemName;
+    private final List<Item> items;
+    private Status status = Status.RESERVED;
+
+    Reservation(String itemName, List<Item> items) {
+        this.itemName = itemName;
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public int getAmount() {
+        return items.size();
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the number of reserved items per warehouse, in the order they were picked
+     *
+     * @return
+     */
+    public Map<Integer, Integer> getAmountPerWarehouse() {
+        Map<Integer, Integer> amounts = new LinkedHashMap<Integer, Integer>();
+        for (Item item : items) {
+            amounts.merge(item.getWarehouse(), 1, Integer::sum);
+        }
+        return amounts;
+    }
+
+    /**
+     * Make the order final
+     */
+    public synchronized void commit() {
+        if (status != Status.RESERVED) throw new IllegalStateException("Reservation is already " + status);
+        status = Status.COMMITTED;
+    }
+
+    /**
+     * Give the reserved items back to the stock
+     */
+    public synchronized void cancel() {
+        if (status != Status.RESERVED) throw new IllegalStateException("Reservation is already " + status);
+        StockRepository.addItems(items);
+        status = Status.CANCELLED;
+    }
+}
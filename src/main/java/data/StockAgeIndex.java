@@ -0,0 +1,297 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Secondary index of a stock snapshot on the date of stock.
+ * Every warehouse keeps its items sorted by date next to a primitive array of their epoch milliseconds,
+ * so range queries are a binary search plus a view of the matching items: O(log n + k).
+ * The index of a snapshot reuses the sorted warehouses of the previous snapshot that did not change,
+ * and merges the changes since then into those that did instead of sorting them again.
+ *
+ */
+public final class StockAgeIndex {
+
+    static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Comparator<Item> BY_DATE = Comparator.comparingLong(StockAgeIndex::epochMillis);
+
+    private final Map<Integer, Column> byWarehouse;
+    private volatile Column all;
+
+    private StockAgeIndex(Map<Integer, Column> byWarehouse) {
+        this.byWarehouse = byWarehouse;
+    }
+
+    /**
+     * Index the given warehouses, taking over the columns of unchanged warehouses from a previous index
+     * and applying the changes made since then to the columns of the changed ones
+     *
+     * @param itemsByWarehouse
+     * @param previous the index of an earlier snapshot, or null
+     * @param changes the changes from the snapshot of the previous index to these items, in order,
+     *                or null if they are not known and changed warehouses have to be sorted again
+     * @return
+     */
+    static StockAgeIndex of(Map<Integer, List<Item>> itemsByWarehouse, StockAgeIndex previous, List<StockChange> changes) {
+        Map<Integer, Map<Item, Integer>> changesByWarehouse = (previous == null || changes == null)
+                ? Collections.<Integer, Map<Item, Integer>>emptyMap() : netChanges(changes);
+        Map<Integer, Column> byWarehouse = new HashMap<Integer, Column>(itemsByWarehouse.size() * 2);
+        for (Map.Entry<Integer, List<Item>> entry : itemsByWarehouse.entrySet()) {
+            Column column = (previous == null) ? null : previous.byWarehouse.get(entry.getKey());
+            if (column != null && column.source != entry.getValue()) {
+                Map<Item, Integer> net = changesByWarehouse.get(entry.getKey());
+                column = (net == null) ? null : column.apply(net, entry.getValue());
+            }
+            if (column == null) column = Column.of(entry.getValue());
+            byWarehouse.put(entry.getKey(), column);
+        }
+        return new StockAgeIndex(byWarehouse);
+    }
+
+    /**
+     * Combine the indexes of separate warehouses into one, e.g. of the partitions of a snapshot.
+     * The sorted warehouses are shared, nothing is sorted again.
+     *
+     * @param indexes indexes of disjoint sets of warehouses
+     * @return
+     */
+    static StockAgeIndex combine(Collection<StockAgeIndex> indexes) {
+        Map<Integer, Column> byWarehouse = new HashMap<Integer, Column>();
+        for (StockAgeIndex index : indexes) {
+            byWarehouse.putAll(index.byWarehouse);
+        }
+        return new StockAgeIndex(byWarehouse);
+    }
+
+    /**
+     * The net effect of a sequence of changes per warehouse: item to the number of times it was added,
+     * negative if it was removed
+     */
+    private static Map<Integer, Map<Item, Integer>> netChanges(List<StockChange> changes) {
+        Map<Integer, Map<Item, Integer>> byWarehouse = new HashMap<Integer, Map<Item, Integer>>();
+        for (StockChange change : changes) {
+            Item item = change.getItem();
+            Map<Item, Integer> net = byWarehouse.computeIfAbsent(item.getWarehouse(), warehouse -> new IdentityHashMap<Item, Integer>());
+            net.merge(item, change.isAdded() ? 1 : -1, Integer::sum);
+        }
+        return byWarehouse;
+    }
+
+    /**
+     * Get the number of whole days an item has been in stock
+     *
+     * @param item
+     * @param now the current time in epoch milliseconds, taken once per request
+     * @return
+     */
+    public static long daysInStock(Item item, long now) {
+        return (now - epochMillis(item)) / DAY_MILLIS;
+    }
+
+    /**
+     * Get the items stocked before the given time, oldest first
+     *
+     * @param epochMillis
+     * @return
+     */
+    public List<Item> getItemsStockedBefore(long epochMillis) {
+        return all().range(Long.MIN_VALUE, epochMillis);
+    }
+
+    /**
+     * Get the items stocked from the first up to the second time, oldest first
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return
+     */
+    public List<Item> getItemsStockedBetween(long from, long to) {
+        return all().range(from, to);
+    }
+
+    /**
+     * Get the items that have been in stock for at least the given number of days, oldest first
+     *
+     * @param days
+     * @param now the current time in epoch milliseconds
+     * @return
+     */
+    public List<Item> getItemsInStockForAtLeast(int days, long now) {
+        return getItemsStockedBefore(now - days * DAY_MILLIS + 1);
+    }
+
+    /**
+     * Get the items of a warehouse stocked from the first up to the second time, oldest first
+     *
+     * @param warehouse
+     * @param from inclusive
+     * @param to exclusive
+     * @return
+     */
+    public List<Item> getItemsStockedBetween(int warehouse, long from, long to) {
+        Column column = byWarehouse.get(warehouse);
+        return (column == null) ? Collections.<Item>emptyList() : column.range(from, to);
+    }
+
+    /**
+     * Get the oldest items of a warehouse, oldest first
+     *
+     * @param warehouse
+     * @param limit
+     * @return
+     */
+    public List<Item> getOldestItems(int warehouse, int limit) {
+        Column column = byWarehouse.get(warehouse);
+        if (column == null) return Collections.emptyList();
+        return column.view(0, Math.min(limit, column.items.length));
+    }
+
+    /**
+     * Get the number of items stocked before the given time without looking at them
+     *
+     * @param epochMillis
+     * @return
+     */
+    public int countStockedBefore(long epochMillis) {
+        int count = 0;
+        for (Column column : byWarehouse.values()) {
+            count += column.lowerBound(epochMillis);
+        }
+        return count;
+    }
+
+    /**
+     * All warehouses in one column, merged on first use
+     */
+    private Column all() {
+        Column column = all;
+        if (column == null) {
+            Column[] columns = byWarehouse.values().toArray(new Column[0]);
+            // merge pairwise, so every item is copied log(warehouses) times
+            for (int width = 1; width < columns.length; width *= 2) {
+                for (int i = 0; i + width < columns.length; i += 2 * width) {
+                    columns[i] = Column.merge(columns[i], columns[i + width], null);
+                }
+            }
+            column = (columns.length == 0) ? Column.of(Collections.<Item>emptyList()) : columns[0];
+            all = column;
+        }
+        return column;
+    }
+
+    static long epochMillis(Item item) {
+        return (item.getDateOfStock() == null) ? 0L : item.getDateOfStock().getTime();
+    }
+
+    /**
+     * Items sorted by date and their dates
+     */
+    private static final class Column {
+        final List<Item> source;
+        final Item[] items;
+        final long[] dates;
+
+        Column(List<Item> source, Item[] items, long[] dates) {
+            this.source = source;
+            this.items = items;
+            this.dates = dates;
+        }
+
+        static Column of(List<Item> source) {
+            Item[] items = source.toArray(new Item[0]);
+            Arrays.sort(items, BY_DATE);
+            long[] dates = new long[items.length];
+            for (int i = 0; i < items.length; i++) {
+                dates[i] = epochMillis(items[i]);
+            }
+            return new Column(source, items, dates);
+        }
+
+        /**
+         * This column with the given net changes applied: the removed items are filtered out
+         * and the added ones sorted and merged in
+         *
+         * @return the column of the given items, or null if the changes do not match this column
+         */
+        Column apply(Map<Item, Integer> net, List<Item> source) {
+            List<Item> added = new ArrayList<Item>();
+            Set<Item> removed = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+            for (Map.Entry<Item, Integer> entry : net.entrySet()) {
+                int count = entry.getValue();
+                if (count == 1) added.add(entry.getKey());
+                else if (count == -1) removed.add(entry.getKey());
+                else if (count != 0) return null;
+            }
+
+            Column kept = this;
+            if (!removed.isEmpty()) {
+                int size = items.length - removed.size();
+                if (size < 0) return null;
+                Item[] keptItems = new Item[size];
+                long[] keptDates = new long[size];
+                int k = 0;
+                for (int i = 0; i < items.length; i++) {
+                    if (removed.contains(items[i])) continue;
+                    if (k == size) return null;
+                    keptItems[k] = items[i];
+                    keptDates[k++] = dates[i];
+                }
+                if (k != size) return null;
+                kept = new Column(null, keptItems, keptDates);
+            }
+            Column column = merge(kept, of(added), source);
+            return (column.items.length == source.size()) ? column : null;
+        }
+
+        static Column merge(Column a, Column b, List<Item> source) {
+            int size = a.items.length + b.items.length;
+            Item[] items = new Item[size];
+            long[] dates = new long[size];
+            int i = 0, j = 0;
+            for (int k = 0; k < size; k++) {
+                if (j == b.items.length || (i < a.items.length && a.dates[i] <= b.dates[j])) {
+                    items[k] = a.items[i];
+                    dates[k] = a.dates[i++];
+                } else {
+                    items[k] = b.items[j];
+                    dates[k] = b.dates[j++];
+                }
+            }
+            return new Column(source, items, dates);
+        }
+
+        /**
+         * The index of the first item stocked at or after the given time
+         */
+        int lowerBound(long epochMillis) {
+            int low = 0;
+            int high = dates.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (dates[middle] < epochMillis) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        List<Item> range(long from, long to) {
+            if (from >= to) return Collections.emptyList();
+            return view(lowerBound(from), lowerBound(to));
+        }
+
+        List<Item> view(int start, int end) {
+            return Collections.unmodifiableList(Arrays.asList(items).subList(start, end));
+        }
+    }
+}
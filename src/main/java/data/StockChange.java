@@ -0,0 +1,24 @@
+package main.java.data;
+
+/**
+ * A single item added to or removed from the stock
+ *
+ */
+public final class StockChange {
+
+    private final boolean added;
+    private final Item item;
+
+    StockChange(boolean added, Item item) {
+        this.added = added;
+        this.item = item;
+    }
+
+    public boolean isAdded() {
+        return added;
+    }
+
+    public Item getItem() {
+        return item;
+    }
+}
@@ -0,0 +1,527 @@
+package main.java.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-back persistence of stock changes.
+ * Every change of the StockRepository is appended as a small delta record to a change log next to the
+ * stock snapshot, so an order never rewrites the whole stock. A background thread writes the records in
+ * batches and forces each batch to disk once (group commit). When the log grows beyond a threshold, or
+ * the whole stock is replaced, the same thread compacts: it writes the current stock as a new
+ * StockSnapshotFile tagged with the last change it contains, then drops the records the snapshot covers.
+ * On startup the snapshot is loaded and the records after its change sequence are replayed.
+ * Only one log can be open for a file at a time, across processes: it is locked through a lock file
+ * next to it, as the log file itself is replaced by every compaction.
+ *
+ * Header layout: magic, version, source length, source last modified, base sequence.
+ * Record layout: length, sequence, operation, warehouse, epoch seconds, state, category, CRC32 of everything before it.
+ * Strings are written as a length followed by UTF-8 bytes.
+ *
+ */
+public class StockChangeLog implements StockListener, AutoCloseable {
+
+    static final long DEFAULT_COMPACT_THRESHOLD = 16L << 20;
+
+    private static final int MAGIC = 0x574D5343; // "WMSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final int MIN_RECORD_SIZE = 4 + 8 + 1 + 4 + 8 + 2 + 2 + 4;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int MAX_BATCH = 4096;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte REPLACED = 3;
+
+    private final File file;
+    private final File snapshot;
+    private final File source;
+    private final long compactThreshold;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(QUEUE_CAPACITY);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Object progress = new Object();
+    private Thread writer;
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    private volatile boolean closed;
+
+    // sequence of the last change handed to the log, of the last one in the snapshot and of the last one on disk
+    private long sequence;
+    private long baseSequence;
+    private long written;
+    // the newest stock together with the sequence of its last change, used for compaction
+    private volatile Entry latest;
+
+    private StockChangeLog(File file, File snapshot, File source, long compactThreshold) {
+        this.file = file;
+        this.snapshot = snapshot;
+        this.source = source;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * Open the change log belonging to a snapshot of the given stock file. A log written for another version
+     * of the stock file, or one that is not covered by the snapshot any more, is started anew.
+     *
+     * @param file the change log
+     * @param snapshot the snapshot the log is applied to
+     * @param source the stock.json file
+     * @param compactThreshold the log size in bytes that starts a compaction
+     * @return
+     * @throws IOException also if the log is already open, e.g. in another process
+     */
+    public static StockChangeLog open(File file, File snapshot, File source, long compactThreshold) throws IOException {
+        StockChangeLog log = new StockChangeLog(file, snapshot, source, compactThreshold);
+        log.lock();
+        try {
+            log.baseSequence = (StockSnapshotFile.isFresh(snapshot, source)) ? StockSnapshotFile.open(snapshot).getChangeSequence() : 0;
+        } catch (IOException e) {
+            log.unlock();
+            throw e;
+        }
+        log.sequence = log.baseSequence;
+        return log;
+    }
+
+    /**
+     * Lock the log for this instance. Two writers would append records with overlapping sequences,
+     * and replay stops at the first record that does not follow the one before.
+     */
+    private void lock() throws IOException {
+        FileChannel lockFile = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // already locked by another log of this process
+            lock = null;
+        } catch (IOException e) {
+            lockFile.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException(file + " is in use by another process");
+        }
+        lockChannel = lockFile;
+    }
+
+    private void unlock() {
+        try {
+            if (lockChannel != null) lockChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        lockChannel = null;
+    }
+
+    /**
+     * Apply the logged changes after the snapshot to the stock loaded from it, then start writing new changes.
+     * Reading stops at the first incomplete or damaged record, which is cut off from the log.
+     *
+     * @param stock the stock loaded from the snapshot
+     * @return the stock with all logged changes applied
+     * @throws IOException
+     */
+    public StockSnapshot replay(StockSnapshot stock) throws IOException {
+        StockSnapshot.Builder builder = stock.edit();
+        long end = HEADER_SIZE;
+        if (isApplicable()) {
+            end = read(file, (seq, operation, state, category, warehouse, epochSecond) -> {
+                if (seq <= sequence) return;
+                if (operation == ADDED) builder.add(StockJsonReader.newItem(state, category, warehouse, epochSecond));
+                else if (operation == REMOVED) builder.removeMatching(state, category, warehouse, epochSecond);
+                sequence = seq;
+            });
+        } else if (file.exists()) {
+            System.err.println("Discarding " + file + ", it does not belong to the current " + snapshot);
+        }
+
+        if (end == HEADER_SIZE) {
+            writeHeader(file, baseSequence);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.truncate(end);
+        channel.position(end);
+        written = sequence;
+
+        StockSnapshot replayed = builder.build();
+        latest = new Entry(sequence, REPLACED, null, replayed);
+        writer = new Thread(this::writeLoop, "stock-change-writer");
+        writer.setDaemon(true);
+        writer.start();
+        return replayed;
+    }
+
+    @Override
+    public void stockChanged(StockSnapshot stock, List<StockChange> changes) {
+        for (StockChange change : changes) {
+            enqueue(new Entry(++sequence, change.isAdded() ? ADDED : REMOVED, change.getItem(), null));
+        }
+        latest = new Entry(sequence, REPLACED, null, stock);
+    }
+
+    @Override
+    public void stockReplaced(StockSnapshot stock) {
+        checkpoint(stock);
+    }
+
+    /**
+     * Compact as soon as the changes before are written, so the snapshot gets written from the given stock.
+     * Must be called while no other change is in progress, like the listener methods.
+     *
+     * @param stock the current stock
+     */
+    public void checkpoint(StockSnapshot stock) {
+        Entry replaced = new Entry(++sequence, REPLACED, null, stock);
+        latest = replaced;
+        enqueue(replaced);
+    }
+
+    /**
+     * Wait until every change made so far is on disk
+     *
+     * @param timeoutMillis
+     * @return whether all changes were written in time
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = latest.sequence;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progress) {
+            while (written < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !writer.isAlive()) return false;
+                try {
+                    progress.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the sequence of the last change
+     *
+     * @return
+     */
+    public long getSequence() {
+        return latest.sequence;
+    }
+
+    /**
+     * Get the sequence of the last change contained in the snapshot
+     *
+     * @return
+     */
+    public synchronized long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * Write all pending changes and close the log
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        if (writer != null) {
+            flush(TimeUnit.SECONDS.toMillis(30));
+            closed = true;
+            writer.interrupt();
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closed = true;
+        unlock();
+    }
+
+    // Reading
+    // =====================================================================================
+
+    /**
+     * Receives the records of a change log
+     */
+    interface RecordHandler {
+        void onRecord(long sequence, byte operation, String state, String category, int warehouse, long epochSecond);
+    }
+
+    /**
+     * Check whether the log was written for the current stock file and starts where the snapshot ends
+     */
+    private boolean isApplicable() {
+        if (!file.isFile()) return false;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) > 0) {
+                // read the complete header
+            }
+            if (header.hasRemaining()) return false;
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION
+                    && header.getLong() == source.length() && header.getLong() == source.lastModified()
+                    && header.getLong() <= baseSequence;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read all intact records of a change log in order
+     *
+     * @return the offset behind the last intact record
+     */
+    static long read(File file, RecordHandler handler) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            in.position(HEADER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            long offset = HEADER_SIZE;
+            long previous = Long.MIN_VALUE;
+            boolean end = false;
+            while (!end) {
+                end = in.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int start = buffer.position();
+                    int length = buffer.getInt(start);
+                    if (length < MIN_RECORD_SIZE || length > BUFFER_SIZE) return offset;
+                    if (buffer.remaining() < length) break;
+
+                    ByteBuffer body = buffer.duplicate();
+                    body.limit(start + length - 4).position(start);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != buffer.getInt(start + length - 4)) return offset;
+
+                    buffer.position(start + 4);
+                    long sequence = buffer.getLong();
+                    if (sequence <= previous) return offset;
+                    byte operation = buffer.get();
+                    int warehouse = buffer.getInt();
+                    long epochSecond = buffer.getLong();
+                    String state = readString(buffer);
+                    String category = readString(buffer);
+                    handler.onRecord(sequence, operation, state, category, warehouse, epochSecond);
+                    previous = sequence;
+                    offset += length;
+                    buffer.position(start + length);
+                }
+                buffer.compact();
+            }
+            // bytes left over at the end are an incomplete record from an interrupted write
+            return offset;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writing
+    // =====================================================================================
+
+    private void enqueue(Entry entry) {
+        // changes must not get lost, so a writer that falls behind slows the writing sessions down
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(entry);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                if (batch.isEmpty()) break;
+            }
+
+            try {
+                boolean replaced = writeBatch(batch);
+                if (replaced || channel.size() > compactThreshold) compact();
+            } catch (IOException | RuntimeException e) {
+                // the writer must keep draining the queue, or every change of the stock blocks once it is full
+                e.printStackTrace();
+            }
+            synchronized (progress) {
+                written = batch.get(batch.size() - 1).sequence;
+                progress.notifyAll();
+            }
+            batch.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write a batch of changes and force it to disk
+     *
+     * @return whether the batch replaced the whole stock
+     */
+    private boolean writeBatch(List<Entry> batch) throws IOException {
+        boolean replaced = false;
+        buffer.clear();
+        for (Entry entry : batch) {
+            if (entry.operation == REPLACED) {
+                replaced = true;
+            } else if (entry.sequence > baseSequence) {
+                // changes already covered by a compacted snapshot are not needed any more
+                try {
+                    put(entry);
+                } catch (RuntimeException e) {
+                    System.err.println("Stock change " + entry.sequence + " cannot be saved: " + e);
+                }
+            }
+        }
+        writeBuffer(channel);
+        channel.force(false);
+        return replaced;
+    }
+
+    /**
+     * Append a record to the buffer. The values are taken before anything is written,
+     * so an item that cannot be saved leaves no partial record behind.
+     */
+    private void put(Entry entry) throws IOException {
+        Item item = entry.item;
+        byte[] state = truncate(item.getState().getBytes(StandardCharsets.UTF_8));
+        byte[] category = truncate(item.getCategory().getBytes(StandardCharsets.UTF_8));
+        long epochSecond = item.getDateOfStock().getTime() / 1000L;
+        int length = MIN_RECORD_SIZE + state.length + category.length;
+        if (buffer.remaining() < length) {
+            writeBuffer(channel);
+            buffer.clear();
+        }
+
+        int start = buffer.position();
+        buffer.putInt(length)
+                .putLong(entry.sequence)
+                .put(entry.operation)
+                .putInt(item.getWarehouse())
+                .putLong(epochSecond)
+                .putShort((short) state.length).put(state)
+                .putShort((short) category.length).put(category);
+        ByteBuffer body = buffer.duplicate();
+        body.limit(buffer.position()).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private void writeBuffer(FileChannel target) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Write the newest stock as the snapshot and keep only the records after it.
+     * The snapshot is moved in place before the log is cut, so a crash in between
+     * only leaves records behind that the next replay skips.
+     */
+    private void compact() throws IOException {
+        Entry base = latest;
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(base.stock.getAllItems()), source, base.sequence);
+        synchronized (this) {
+            baseSequence = base.sequence;
+        }
+
+        // the writer is the only one appending, so the log cannot change while it is rewritten
+        List<Entry> remaining = new ArrayList<Entry>();
+        read(file, (seq, operation, state, category, warehouse, epochSecond) -> {
+            if (seq > base.sequence) {
+                remaining.add(new Entry(seq, operation, StockJsonReader.newItem(state, category, warehouse, epochSecond), null));
+            }
+        });
+        File temp = new File(file.getPath() + ".tmp");
+        writeHeader(temp, base.sequence);
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            buffer.clear();
+            for (Entry entry : remaining) {
+                put(entry);
+            }
+            writeBuffer(out);
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeHeader(File target, long base) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putLong(source.length()).putLong(source.lastModified())
+                    .putLong(base);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            out.force(true);
+        }
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        return (bytes.length <= MAX_STRING_BYTES) ? bytes : Arrays.copyOf(bytes, MAX_STRING_BYTES);
+    }
+
+    /**
+     * A change waiting to be written, or the stock as of a sequence
+     */
+    private static final class Entry {
+        final long sequence;
+        final byte operation;
+        final Item item;
+        final StockSnapshot stock;
+
+        Entry(long sequence, byte operation, Item item, StockSnapshot stock) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.item = item;
+            this.stock = stock;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package main.java.data;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk import of arriving stock into the StockRepository.
+ * Records are read in batches; the records of a batch are validated and converted to items in parallel,
+ * then the valid ones are added in one repository change, so every index bucket, listener and change log
+ * write is paid once per batch instead of once per item. Invalid records are skipped and reported.
+ * Files are CSV with the columns state,category,warehouse,date_of_stock (the header line is optional)
+ * or JSON lines with one stock.json record per line; dates use the stock.json layout.
+ *
+ */
+public class StockImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 50_000;
+
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final String CSV_HEADER = "state,category,warehouse,date_of_stock";
+
+    /**
+     * The layout of an import file
+     */
+    public enum Format {
+        CSV, JSON_LINES;
+
+        /**
+         * Choose the format by the file extension: .csv, or .jsonl and .ndjson
+         *
+         * @param path
+         * @return
+         */
+        public static Format of(String path) {
+            String lower = path.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".csv")) return CSV;
+            if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) return JSON_LINES;
+            throw new IllegalArgumentException("Unknown import format, expected .csv, .jsonl or .ndjson: " + path);
+        }
+    }
+
+    /**
+     * Import a CSV or JSON lines file, the format is chosen by the extension
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ImportResult importFile(String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+            return importLines(reader, Format.of(path), DEFAULT_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Import the records of a reader, one record per line
+     *
+     * @param reader
+     * @param format
+     * @param batchSize the number of records converted and added together
+     * @return
+     * @throws IOException
+     */
+    public static ImportResult importLines(BufferedReader reader, Format format, int batchSize) throws IOException {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        Progress progress = new Progress();
+        Converter converter = new Converter(ZoneId.systemDefault());
+
+        List<String> lines = new ArrayList<String>(batchSize);
+        long firstLine = 1;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && format == Format.CSV && line.replace(" ", "").equalsIgnoreCase(CSV_HEADER)) {
+                firstLine = 2;
+                continue;
+            }
+            lines.add(line);
+            if (lines.size() == batchSize) {
+                progress.apply(converter.convert(lines, format, firstLine));
+                lines.clear();
+                firstLine = lineNumber + 1;
+            }
+        }
+        if (!lines.isEmpty()) progress.apply(converter.convert(lines, format, firstLine));
+        return progress.result();
+    }
+
+    /**
+     * Import items from memory, e.g. received by another system
+     *
+     * @param items
+     * @param batchSize the number of items validated and added together
+     * @return
+     */
+    public static ImportResult importItems(Iterable<Item> items, int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        Progress progress = new Progress();
+
+        List<Item> batch = new ArrayList<Item>(batchSize);
+        long position = 0;
+        for (Item item : items) {
+            batch.add(item);
+            if (batch.size() == batchSize) {
+                progress.apply(validate(batch, position));
+                position += batch.size();
+                batch = new ArrayList<Item>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) progress.apply(validate(batch, position));
+        return progress.result();
+    }
+
+    /**
+     * Check items in parallel, the invalid ones are replaced by null. The valid ones are copied,
+     * the caller keeps its instances and changing them later does not change the stock.
+     */
+    private static Batch validate(List<Item> items, long firstPosition) {
+        Batch batch = new Batch(items.size());
+        IntStream.range(0, items.size()).parallel().forEach(i -> {
+            Item item = items.get(i);
+            String error = (item == null) ? "no item" : validate(item.getState(), item.getCategory(), item.getWarehouse(), item.getDateOfStock() != null);
+            if (error == null) {
+                Item copy = StockRepository.copyOf(item, item.getWarehouse());
+                copy.setDateOfStock(new Date(item.getDateOfStock().getTime()));
+                batch.items[i] = copy;
+            }
+            else batch.errors[i] = "item " + (firstPosition + i) + ": " + error;
+        });
+        return batch;
+    }
+
+    /**
+     * The reason the values cannot be an item, or null if they can
+     */
+    static String validate(String state, String category, int warehouse, boolean hasDate) {
+        if (state == null || state.trim().isEmpty()) return "state is missing";
+        if (category == null || category.trim().isEmpty()) return "category is missing";
+        if (warehouse <= 0) return "warehouse must be a positive number: " + warehouse;
+        if (!hasDate) return "date_of_stock is missing";
+        return null;
+    }
+
+    /**
+     * The records of one batch: at every position either the item or the reason it was rejected
+     */
+    private static final class Batch {
+        final Item[] items;
+        final String[] errors;
+
+        Batch(int size) {
+            this.items = new Item[size];
+            this.errors = new String[size];
+        }
+    }
+
+    /**
+     * Turns lines into items
+     */
+    private static final class Converter {
+        private final ZoneId zone;
+        // repeated state and category values share one String instance, as in a loaded stock
+        private final Map<String, String> pool = new ConcurrentHashMap<String, String>();
+
+        Converter(ZoneId zone) {
+            this.zone = zone;
+        }
+
+        Batch convert(List<String> lines, Format format, long firstLine) {
+            Batch batch = new Batch(lines.size());
+            IntStream.range(0, lines.size()).parallel().forEach(i -> {
+                String line = lines.get(i);
+                if (line.trim().isEmpty()) return;
+                try {
+                    batch.items[i] = (format == Format.CSV) ? fromCsv(line) : fromJson(line);
+                } catch (IllegalArgumentException | ParseException | ClassCastException e) {
+                    batch.errors[i] = "line " + (firstLine + i) + ": " + message(e);
+                }
+            });
+            return batch;
+        }
+
+        private Item fromCsv(String line) {
+            List<String> fields = splitCsv(line);
+            if (fields.size() != 4) throw new IllegalArgumentException("expected 4 fields, found " + fields.size());
+            return item(fields.get(0).trim(), fields.get(1).trim(), parseWarehouse(fields.get(2).trim()), fields.get(3).trim());
+        }
+
+        private Item fromJson(String line) throws ParseException {
+            Object parsed = new JSONParser().parse(line);
+            if (!(parsed instanceof JSONObject)) throw new IllegalArgumentException("expected a JSON object");
+            JSONObject record = (JSONObject) parsed;
+            Object warehouse = record.get("warehouse");
+            if (warehouse != null && !(warehouse instanceof Number)) throw new IllegalArgumentException("warehouse must be a number: " + warehouse);
+            return item((String) record.get("state"), (String) record.get("category"),
+                    (warehouse == null) ? 0 : ((Number) warehouse).intValue(), (String) record.get("date_of_stock"));
+        }
+
+        private Item item(String state, String category, int warehouse, String date) {
+            String error = validate(state, category, warehouse, date != null && !date.isEmpty());
+            if (error != null) throw new IllegalArgumentException(error);
+            long epochSecond;
+            try {
+                epochSecond = StockJsonReader.parseEpochSecond(date.trim(), zone);
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("date_of_stock is not a yyyy-MM-dd HH:mm:ss date: " + date);
+            }
+            return StockJsonReader.newItem(pool.computeIfAbsent(state, value -> value),
+                    pool.computeIfAbsent(category, value -> value), warehouse, epochSecond);
+        }
+
+        private static int parseWarehouse(String warehouse) {
+            try {
+                return Integer.parseInt(warehouse);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("warehouse must be a number: " + warehouse);
+            }
+        }
+
+        private static String message(Exception e) {
+            if (e instanceof ParseException) return "invalid JSON at position " + ((ParseException) e).getPosition();
+            if (e instanceof ClassCastException) return "state and category must be strings";
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Split a CSV line into its fields. Fields may be quoted with double quotes, a quote inside
+     * a quoted field is written twice.
+     *
+     * @param line
+     * @return
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<String>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') field.append(c);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') field.append(line.charAt(++i));
+                else quoted = false;
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Counts the records of an import and adds the valid ones batch by batch
+     */
+    private static final class Progress {
+        private final long start = System.nanoTime();
+        private final List<String> errors = new ArrayList<String>();
+        private long imported;
+        private long rejected;
+        private int batches;
+
+        void apply(Batch batch) {
+            List<Item> valid = new ArrayList<Item>(batch.items.length);
+            for (int i = 0; i < batch.items.length; i++) {
+                if (batch.items[i] != null) {
+                    valid.add(batch.items[i]);
+                } else if (batch.errors[i] != null) {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) errors.add(batch.errors[i]);
+                }
+            }
+            if (valid.isEmpty()) return;
+            StockRepository.addItems(valid);
+            imported += valid.size();
+            batches++;
+        }
+
+        ImportResult result() {
+            return new ImportResult(imported, rejected, errors, batches, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Import a file into the stock: StockImporter file.csv|file.jsonl
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: StockImporter file.csv|file.jsonl");
+            return;
+        }
+        if (!StockRepository.isPersistent()) {
+            System.out.println("Nothing imported, the stock changes cannot be saved");
+            return;
+        }
+        ImportResult result = importFile(args[0]);
+        System.out.println(result);
+        for (String error : result.getErrors()) {
+            System.out.println("- " + error);
+        }
+        if (result.getRejected() > result.getErrors().size()) {
+            System.out.printf("- and %,d more\n", result.getRejected() - result.getErrors().size());
+        }
+    }
+}
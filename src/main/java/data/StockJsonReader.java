@@ -0,0 +1,528 @@
+package main.java.data;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Streaming reader for the stock.json format.
+ * The file is tokenized incrementally from a buffered reader and every record is handed
+ * over as soon as it is complete, so no intermediate JSON tree is ever built.
+ *
+ */
+public class StockJsonReader implements Closeable {
+
+    /**
+     * Receives every stock record read from the file
+     */
+    public interface RecordHandler {
+        void onRecord(String state, String category, int warehouse, long epochSecond);
+    }
+
+    /**
+     * The date layout used in stock.json. DateTimeFormatter is immutable and thread-safe,
+     * so a single instance is shared by all readers.
+     */
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final ZoneId zone;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // scratch space for the string currently being read
+    private char[] text = new char[64];
+    private int textLength;
+
+    // repeated state and category values share one String instance
+    private final StringPool pool = new StringPool();
+
+    public StockJsonReader(Reader reader) {
+        this(reader, ZoneId.systemDefault());
+    }
+
+    public StockJsonReader(Reader reader, ZoneId zone) {
+        this.reader = reader;
+        this.zone = zone;
+    }
+
+    /**
+     * Open a reader on the given file
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static StockJsonReader open(String path) throws IOException {
+        return new StockJsonReader(new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE));
+    }
+
+    /**
+     * Read all items of the given file
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static List<Item> readItems(String path) throws IOException {
+        List<Item> items = new ArrayList<Item>();
+        try (StockJsonReader reader = open(path)) {
+            reader.read((state, category, warehouse, epochSecond) -> items.add(newItem(state, category, warehouse, epochSecond)));
+        }
+        return items;
+    }
+
+    /**
+     * Split the stock array into about the given number of parts at record boundaries: every part
+     * but the first starts with the '{' of a record that follows "}," (whitespace allowed in between).
+     * A boundary is looked for as bytes, the bytes of a UTF-8 multi-byte character are never ASCII.
+     *
+     * @param channel
+     * @param parts
+     * @return the start offsets of the parts, followed by the file size
+     * @throws IOException
+     */
+    static long[] recordBoundaries(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[parts + 1];
+        int count = 1;
+        ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int part = 1; part < parts; part++) {
+            long from = Math.max(size / parts * part, bounds[count - 1] + 1);
+            long boundary = nextRecordBoundary(channel, from, window);
+            if (boundary < 0) break;
+            if (boundary > bounds[count - 1]) bounds[count++] = boundary;
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Find the start of the first record after the given offset that follows "},"
+     *
+     * @return the offset of its '{', or -1 if there is none
+     */
+    private static long nextRecordBoundary(FileChannel channel, long from, ByteBuffer window) throws IOException {
+        // 0: looking for '}', 1: after '}' looking for ',', 2: after "}," looking for '{'
+        int state = 0;
+        long offset = from;
+        while (true) {
+            window.clear();
+            int read = channel.read(window, offset);
+            if (read <= 0) return -1;
+            for (int i = 0; i < read; i++) {
+                byte b = window.get(i);
+                if (b == ' ' || b == '\n' || b == '\r' || b == '\t') continue;
+                if (state == 1 && b == ',') state = 2;
+                else if (state == 2 && b == '{') return offset + i;
+                else state = (b == '}') ? 1 : 0;
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Create an item from the raw values of a record
+     *
+     * @return
+     */
+    public static Item newItem(String state, String category, int warehouse, long epochSecond) {
+        Item item = new Item();
+        item.setState(state);
+        item.setCategory(category);
+        item.setWarehouse(warehouse);
+        item.setDateOfStock(new Date(epochSecond * 1000L));
+        return item;
+    }
+
+    /**
+     * Parse a date in the stock.json layout to epoch seconds of the given zone.
+     * The fixed layout is decoded directly, anything else goes through the shared formatter.
+     *
+     * @param date
+     * @param zone
+     * @return
+     */
+    public static long parseEpochSecond(CharSequence date, ZoneId zone) {
+        if (date.length() == 19 && date.charAt(4) == '-' && date.charAt(7) == '-' && date.charAt(10) == ' '
+                && date.charAt(13) == ':' && date.charAt(16) == ':') {
+            int year = digits(date, 0, 4);
+            int month = digits(date, 5, 2);
+            int day = digits(date, 8, 2);
+            int hour = digits(date, 11, 2);
+            int minute = digits(date, 14, 2);
+            int second = digits(date, 17, 2);
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0) {
+                return LocalDateTime.of(year, month, day, hour, minute, second).atZone(zone).toEpochSecond();
+            }
+        }
+        LocalDateTime dateTime = LocalDateTime.parse(date, DATE_FORMAT);
+        return dateTime.atZone(zone).toEpochSecond();
+    }
+
+    /**
+     * Read the whole array and pass every record to the handler
+     *
+     * @param handler
+     * @throws IOException
+     */
+    public void read(RecordHandler handler) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == -1) return;
+        expect(c, '[');
+
+        c = nextNonWhitespace();
+        if (c == ']') return;
+        while (true) {
+            expect(c, '{');
+            readRecord(handler);
+            c = nextNonWhitespace();
+            if (c == ']') return;
+            expect(c, ',');
+            c = nextNonWhitespace();
+        }
+    }
+
+    /**
+     * Read the records of a part of the array as split by recordBoundaries(): only the first part
+     * starts with the opening bracket, every other part with a record; every part but the last
+     * ends with the comma after its last record, the last one with the closing bracket.
+     */
+    void readPart(RecordHandler handler, boolean first, boolean last) throws IOException {
+        int c = nextNonWhitespace();
+        if (first) {
+            expect(c, '[');
+            c = nextNonWhitespace();
+            if (last && c == ']') return;
+        }
+        while (true) {
+            expect(c, '{');
+            readRecord(handler);
+            c = nextNonWhitespace();
+            if (last && c == ']') return;
+            expect(c, ',');
+            c = nextNonWhitespace();
+            if (!last && c == -1) return;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Read the fields of one object, the opening brace has already been consumed
+     */
+    private void readRecord(RecordHandler handler) throws IOException {
+        String state = null;
+        String category = null;
+        int warehouse = 0;
+        long epochSecond = 0;
+
+        int c = nextNonWhitespace();
+        if (c != '}') {
+            while (true) {
+                expect(c, '"');
+                readString();
+                Field field = Field.of(text, textLength);
+                expect(nextNonWhitespace(), ':');
+                c = nextNonWhitespace();
+
+                switch (field) {
+                    case STATE:
+                        expect(c, '"');
+                        readString();
+                        state = pool.get(text, textLength);
+                        break;
+                    case CATEGORY:
+                        expect(c, '"');
+                        readString();
+                        category = pool.get(text, textLength);
+                        break;
+                    case WAREHOUSE:
+                        warehouse = readInt(c);
+                        break;
+                    case DATE_OF_STOCK:
+                        expect(c, '"');
+                        readString();
+                        epochSecond = parseDate();
+                        break;
+                    default:
+                        skipValue(c);
+                }
+
+                c = nextNonWhitespace();
+                if (c == '}') break;
+                expect(c, ',');
+                c = nextNonWhitespace();
+            }
+        }
+
+        if (state == null || category == null) {
+            throw new IOException("Incomplete stock record at offset " + position);
+        }
+        handler.onRecord(state, category, warehouse, epochSecond);
+    }
+
+    /**
+     * Parse the date held in the scratch buffer. The fixed layout is decoded in place,
+     * anything else goes through the shared formatter.
+     */
+    private long parseDate() {
+        char[] t = text;
+        if (textLength == 19 && t[4] == '-' && t[7] == '-' && t[10] == ' ' && t[13] == ':' && t[16] == ':') {
+            int year = digits(t, 0, 4);
+            int month = digits(t, 5, 2);
+            int day = digits(t, 8, 2);
+            int hour = digits(t, 11, 2);
+            int minute = digits(t, 14, 2);
+            int second = digits(t, 17, 2);
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0) {
+                return LocalDateTime.of(year, month, day, hour, minute, second).atZone(zone).toEpochSecond();
+            }
+        }
+        return parseEpochSecond(new String(t, 0, textLength), zone);
+    }
+
+    private static int digits(char[] chars, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int digits(CharSequence chars, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = chars.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Read an integer value starting with the given character
+     */
+    private int readInt(int c) throws IOException {
+        if (c == '"') {
+            readString();
+            return Integer.parseInt(new String(text, 0, textLength).trim());
+        }
+        boolean negative = c == '-';
+        if (negative) c = next();
+        if (c < '0' || c > '9') throw error("number", c);
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) throw new IOException("Number out of range at offset " + position);
+            c = next();
+        }
+        unread(c);
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Read a string into the scratch buffer, the opening quote has already been consumed
+     */
+    private void readString() throws IOException {
+        textLength = 0;
+        while (true) {
+            int c = next();
+            if (c == '"') return;
+            if (c == -1) throw error("'\"'", c);
+            if (c == '\\') c = readEscape();
+            if (textLength == text.length) {
+                char[] grown = new char[text.length * 2];
+                System.arraycopy(text, 0, grown, 0, textLength);
+                text = grown;
+            }
+            text[textLength++] = (char) c;
+        }
+    }
+
+    private int readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) throw new IOException("Invalid unicode escape at offset " + position);
+                    value = (value << 4) | digit;
+                }
+                return value;
+            case -1:
+                throw error("escape", c);
+            default:
+                return c;
+        }
+    }
+
+    /**
+     * Skip a value of a field this reader does not know about
+     */
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            readString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == -1) throw error("value", c);
+                if (c == '"') readString();
+                else if (c == '{' || c == '[') depth++;
+                else if (c == '}' || c == ']') depth--;
+            }
+            return;
+        }
+        // a number or a literal runs up to the next delimiter
+        while (c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            if (c == -1) throw error("value", c);
+            c = next();
+        }
+        unread(c);
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = next();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = next();
+        }
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Step back over the last character returned by next()
+     */
+    private void unread(int c) {
+        if (c != -1) position--;
+    }
+
+    private void expect(int actual, char expected) throws IOException {
+        if (actual != expected) throw error("'" + expected + "'", actual);
+    }
+
+    private IOException error(String expected, int actual) {
+        String found = (actual == -1) ? "end of input" : "'" + (char) actual + "'";
+        return new IOException("Expected " + expected + " but found " + found + " in stock data");
+    }
+
+    /**
+     * The fields of a stock record
+     */
+    private enum Field {
+        STATE("state"), CATEGORY("category"), WAREHOUSE("warehouse"), DATE_OF_STOCK("date_of_stock"), UNKNOWN("");
+
+        private final char[] name;
+
+        Field(String name) {
+            this.name = name.toCharArray();
+        }
+
+        static Field of(char[] chars, int length) {
+            for (Field field : values()) {
+                if (field.name.length == length && regionEquals(field.name, chars, length)) return field;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    private static boolean regionEquals(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A small open-addressing table that returns the same String instance for equal characters,
+     * so that a repeated value does not cost a new String per record.
+     */
+    private static final class StringPool {
+        private String[] table = new String[256];
+        private int size;
+
+        String get(char[] chars, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = table.length - 1;
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (true) {
+                String candidate = table[index];
+                if (candidate == null) break;
+                if (candidate.length() == length && matches(candidate, chars, length)) return candidate;
+                index = (index + 1) & mask;
+            }
+
+            String value = new String(chars, 0, length);
+            table[index] = value;
+            if (++size * 2 > table.length) rehash();
+            return value;
+        }
+
+        private static boolean matches(String candidate, char[] chars, int length) {
+            for (int i = 0; i < length; i++) {
+                if (candidate.charAt(i) != chars[i]) return false;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            String[] old = table;
+            table = new String[old.length * 2];
+            int mask = table.length - 1;
+            for (String value : old) {
+                if (value == null) continue;
+                int hash = value.hashCode();
+                int index = (hash ^ (hash >>> 16)) & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+            }
+        }
+    }
+}
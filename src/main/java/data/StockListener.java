@@ -0,0 +1,27 @@
+package main.java.data;
+
+import java.util.List;
+
+/**
+ * Gets notified of every change to the StockRepository.
+ * Notifications are delivered in order while the change is still exclusive,
+ * so listeners must return quickly and must not change the stock themselves.
+ *
+ */
+public interface StockListener {
+
+    /**
+     * Items were added or removed
+     *
+     * @param stock the stock after the change
+     * @param changes the single changes, in the order they were made
+     */
+    void stockChanged(StockSnapshot stock, List<StockChange> changes);
+
+    /**
+     * The whole stock was replaced
+     *
+     * @param stock the new stock
+     */
+    void stockReplaced(StockSnapshot stock);
+}
@@ -0,0 +1,330 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stock report: item counts per warehouse, per category, per warehouse and category,
+ * and stock-age histograms. Everything is computed in a single pass over the items;
+ * in parallel mode every worker fills its own partial aggregate and the partials are merged.
+ *
+ */
+public class StockReport {
+
+    /**
+     * Upper limits in days of the stock-age buckets, the last bucket holds everything older
+     */
+    public static final int[] AGE_BUCKET_DAYS = {30, 90, 180, 365, 730};
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final List<String> categories;
+    private final Map<Integer, Row> rows;
+    private final int total;
+
+    private StockReport(List<String> categories, Map<Integer, Row> rows) {
+        this.categories = categories;
+        this.rows = rows;
+        int sum = 0;
+        for (Row row : rows.values()) {
+            sum += row.total;
+        }
+        this.total = sum;
+    }
+
+    /**
+     * Compute the report over the current stock in parallel
+     *
+     * @return
+     */
+    public static StockReport current() {
+        return of(StockRepository.snapshot());
+    }
+
+    /**
+     * Compute the report over a snapshot of the stock
+     *
+     * @param stock
+     * @return
+     */
+    public static StockReport of(StockSnapshot stock) {
+        return of(stock.getAllItems(), stock.getCategories(), System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Compute the report over the given items
+     *
+     * @param items
+     * @param categories the known categories, others are added while counting
+     * @param now the time stock ages are measured at, in epoch milliseconds
+     * @param parallel whether to split the work over the common fork/join pool
+     * @return
+     */
+    public static StockReport of(List<Item> items, Collection<String> categories, long now, boolean parallel) {
+        Categories known = new Categories(categories);
+        Aggregate aggregate = StreamSupport.stream(items.spliterator(), parallel).collect(
+                () -> new Aggregate(known, now), Aggregate::add, Aggregate::merge);
+        return new StockReport(aggregate.categoryNames(), aggregate.rows);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public Set<Integer> getWarehouses() {
+        return Collections.unmodifiableSet(new TreeSet<Integer>(rows.keySet()));
+    }
+
+    public List<String> getCategories() {
+        return Collections.unmodifiableList(categories);
+    }
+
+    public int getCountByWarehouse(int warehouse) {
+        Row row = rows.get(warehouse);
+        return (row == null) ? 0 : row.total;
+    }
+
+    public int getCountByCategory(String category) {
+        int index = indexOf(category);
+        if (index < 0) return 0;
+        int count = 0;
+        for (Row row : rows.values()) {
+            count += row.count(index);
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of items of a category in a warehouse
+     *
+     * @param warehouse
+     * @param category
+     * @return
+     */
+    public int getCount(int warehouse, String category) {
+        Row row = rows.get(warehouse);
+        int index = indexOf(category);
+        return (row == null || index < 0) ? 0 : row.count(index);
+    }
+
+    /**
+     * Get the number of items per stock-age bucket over all warehouses
+     *
+     * @return counts indexed like AGE_BUCKET_DAYS, plus one bucket for older items
+     */
+    public int[] getAgeHistogram() {
+        int[] histogram = new int[AGE_BUCKET_DAYS.length + 1];
+        for (Row row : rows.values()) {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += row.ages[i];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Get the number of items per stock-age bucket in a warehouse
+     *
+     * @param warehouse
+     * @return
+     */
+    public int[] getAgeHistogram(int warehouse) {
+        Row row = rows.get(warehouse);
+        return (row == null) ? new int[AGE_BUCKET_DAYS.length + 1] : row.ages.clone();
+    }
+
+    /**
+     * Get the number of items without a stock date, these are left out of the age histograms
+     *
+     * @return
+     */
+    public int getUndatedCount() {
+        int undated = 0;
+        for (Row row : rows.values()) {
+            undated += row.undated;
+        }
+        return undated;
+    }
+
+    /**
+     * A readable label for an age bucket, e.g. "30-90 days"
+     *
+     * @param bucket
+     * @return
+     */
+    public static String getAgeBucketLabel(int bucket) {
+        if (bucket == 0) return "< " + AGE_BUCKET_DAYS[0] + " days";
+        if (bucket == AGE_BUCKET_DAYS.length) return ">= " + AGE_BUCKET_DAYS[bucket - 1] + " days";
+        return AGE_BUCKET_DAYS[bucket - 1] + "-" + AGE_BUCKET_DAYS[bucket] + " days";
+    }
+
+    private int indexOf(String category) {
+        String key = StockSnapshot.categoryKey(category);
+        for (int i = 0; i < categories.size(); i++) {
+            if (StockSnapshot.categoryKey(categories.get(i)).equals(key)) return i;
+        }
+        return -1;
+    }
+
+    static int ageBucket(long ageDays) {
+        for (int i = 0; i < AGE_BUCKET_DAYS.length; i++) {
+            if (ageDays < AGE_BUCKET_DAYS[i]) return i;
+        }
+        return AGE_BUCKET_DAYS.length;
+    }
+
+    /**
+     * Read-only lookup of the category column an item is counted in, shared by all workers
+     */
+    private static final class Categories {
+        private final List<String> names = new ArrayList<String>();
+        // exact category strings first, the case-folded key only when those miss
+        private final Map<String, Integer> byName = new HashMap<String, Integer>();
+        private final Map<String, Integer> byKey = new HashMap<String, Integer>();
+
+        Categories(Collection<String> categories) {
+            for (String category : categories) {
+                String key = StockSnapshot.categoryKey(category);
+                if (byKey.containsKey(key)) continue;
+                byKey.put(key, names.size());
+                byName.put(category, names.size());
+                names.add(category);
+            }
+        }
+
+        int indexOf(String category) {
+            Integer index = byName.get(category);
+            if (index == null) index = byKey.get(StockSnapshot.categoryKey(category));
+            return (index == null) ? -1 : index;
+        }
+    }
+
+    /**
+     * The counts of one warehouse
+     */
+    private static final class Row {
+        int total;
+        int undated;
+        int[] categories;
+        final int[] ages = new int[AGE_BUCKET_DAYS.length + 1];
+
+        Row(int categoryCount) {
+            categories = new int[categoryCount];
+        }
+
+        int count(int category) {
+            return (category < categories.length) ? categories[category] : 0;
+        }
+
+        void add(int category, int count) {
+            if (category >= categories.length) {
+                int[] grown = new int[Math.max(category + 1, categories.length * 2)];
+                System.arraycopy(categories, 0, grown, 0, categories.length);
+                categories = grown;
+            }
+            categories[category] += count;
+        }
+
+        /**
+         * Add the counts of another row whose category columns are mapped by the given array
+         */
+        void merge(Row other, int[] columns) {
+            total += other.total;
+            undated += other.undated;
+            for (int i = 0; i < other.categories.length; i++) {
+                if (other.categories[i] != 0) add(columns[i], other.categories[i]);
+            }
+            for (int i = 0; i < ages.length; i++) {
+                ages[i] += other.ages[i];
+            }
+        }
+    }
+
+    /**
+     * The partial result of one worker
+     */
+    private static final class Aggregate {
+        private final Categories known;
+        private final long now;
+        private final Map<Integer, Row> rows = new HashMap<Integer, Row>();
+        // categories that were not known up front, in order of appearance
+        private final List<String> extra = new ArrayList<String>();
+
+        Aggregate(Categories known, long now) {
+            this.known = known;
+            this.now = now;
+        }
+
+        void add(Item item) {
+            Row row = rows.get(item.getWarehouse());
+            if (row == null) {
+                row = new Row(known.names.size());
+                rows.put(item.getWarehouse(), row);
+            }
+            row.total++;
+            row.add(categoryIndex(item.getCategory()), 1);
+            Date dateOfStock = item.getDateOfStock();
+            if (dateOfStock == null) row.undated++;
+            else row.ages[ageBucket((now - dateOfStock.getTime()) / DAY_MILLIS)]++;
+        }
+
+        void merge(Aggregate other) {
+            // the other worker's extra categories may sit at different columns
+            // (columns past the other's categories are spare capacity and always zero)
+            int[] columns = new int[other.width()];
+            for (int i = 0; i < columns.length; i++) {
+                int extraIndex = i - known.names.size();
+                if (extraIndex < 0) columns[i] = i;
+                else if (extraIndex < other.extra.size()) columns[i] = categoryIndex(other.extra.get(extraIndex));
+                else columns[i] = -1;
+            }
+
+            for (Map.Entry<Integer, Row> entry : other.rows.entrySet()) {
+                Row row = rows.get(entry.getKey());
+                if (row == null) {
+                    row = new Row(known.names.size() + extra.size());
+                    rows.put(entry.getKey(), row);
+                }
+                row.merge(entry.getValue(), columns);
+            }
+        }
+
+        /**
+         * The widest category row of this aggregate
+         */
+        int width() {
+            int width = 0;
+            for (Row row : rows.values()) {
+                width = Math.max(width, row.categories.length);
+            }
+            return width;
+        }
+
+        List<String> categoryNames() {
+            List<String> names = new ArrayList<String>(known.names);
+            names.addAll(extra);
+            return names;
+        }
+
+        private int categoryIndex(String category) {
+            int index = known.indexOf(category);
+            if (index >= 0) return index;
+
+            String key = StockSnapshot.categoryKey(category);
+            for (int i = 0; i < extra.size(); i++) {
+                if (StockSnapshot.categoryKey(extra.get(i)).equals(key)) return known.names.size() + i;
+            }
+            extra.add(category);
+            return known.names.size() + extra.size() - 1;
+        }
+    }
+}
@@ -1,17 +1,30 @@
 package main.java.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import main.java.metrics.Metrics;
+import main.java.metrics.Timer;
+
+import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * The Data Repository
@@ -21,47 +34,150 @@ import org.json.simple.JSONValue;
  */
 public class StockRepository {
 
-    private static List<Item> ITEM_LIST = new ArrayList<Item>();
+    static final String STOCK_FILE = "src/main/resources/stock.json";
+    // Binary copy of STOCK_FILE, written on the first load and mapped on later starts
+    static final String STOCK_SNAPSHOT = "src/main/resources/stock.snapshot";
+    // Changes made since the snapshot was written, see StockChangeLog
+    static final String STOCK_CHANGES = "src/main/resources/stock.changes";
+    // Set to false to keep changes in memory only, e.g. for benchmarks working on synthetic stock
+    public static final String PERSIST_PROPERTY = "warehouse.persist";
+
+    // The current stock and its indexes, partitioned by warehouse. Readers use whatever snapshot is published.
+    // A change to some warehouses builds their new partitions under the locks of just those warehouses, so changes
+    // to different warehouses run side by side; a change to the whole stock holds STOCK_LOCK exclusively instead.
+    // The new partitions are then put into the latest snapshot and published one change at a time under PUBLISH_LOCK.
+    private static volatile StockSnapshot STOCK = StockSnapshot.EMPTY;
+    private static final ReentrantReadWriteLock STOCK_LOCK = new ReentrantReadWriteLock();
+    private static final Map<Integer, ReentrantLock> WAREHOUSE_LOCKS = new ConcurrentHashMap<Integer, ReentrantLock>();
+    private static final ReentrantLock PUBLISH_LOCK = new ReentrantLock();
+    private static final List<StockListener> LISTENERS = new CopyOnWriteArrayList<StockListener>();
+    private static StockChangeLog CHANGES;
+
+    // Query timings. Queries under a microsecond are sampled, and the lookups of a single index
+    // bucket are not timed at all: they take tens of nanoseconds, less than any timing costs.
+    private static final int SAMPLED = 1024;
+    private static final Timer LOAD = Metrics.timer("stock.load");
+    private static final Timer UPDATE = Metrics.timer("stock.update");
+    private static final Timer RELOAD = Metrics.timer("stock.reload");
+    private static final Timer GET_WAREHOUSES = Metrics.timer("stock.getWarehouses", SAMPLED);
+    private static final Timer GET_CATEGORIES = Metrics.timer("stock.getCategories", SAMPLED);
+    private static final Timer GET_ITEMS_IN_STOCK_FOR = Metrics.timer("stock.getItemsInStockForAtLeast", SAMPLED);
+    private static final Timer GET_ITEMS_BY_NAME = Metrics.timer("stock.getItemsByName", SAMPLED);
+    private static final Timer GET_NAMES_STARTING_WITH = Metrics.timer("stock.getItemNamesStartingWith");
+    private static final Timer GET_NAMES_CONTAINING = Metrics.timer("stock.getItemNamesContaining");
+    private static final Timer FIND_SIMILAR_ITEMS = Metrics.timer("stock.findSimilarItems");
+
+    // the share of trigrams a name needs in common with a search to be suggested, a typo in a short name keeps about half
+    private static final double MIN_NAME_SIMILARITY = 0.3;
+
+    // Results of repeated searches, dropped when the stock of their name changes.
+    // Category counts are not cached, they are the size of an index bucket already.
+    private static final QueryCache<String, Map<Integer, List<Item>>> SEARCH_CACHE =
+            new QueryCache<String, Map<Integer, List<Item>>>(1024, 10, TimeUnit.MINUTES);
 
     /**
-     * Load item records from the stock.json file
+     * Load item records from the stock.json file and replay the changes made since
      */
     static {
         // System.out.println("Loading items");
-        BufferedReader reader = null;
-        try {
-            ITEM_LIST.clear();
-
-            reader = new BufferedReader(new FileReader("src/main/resources/stock.json"));
-            Object data = JSONValue.parse(reader);
-            if (data instanceof JSONArray) {
-                JSONArray dataArray = (JSONArray) data;
-                for (Object obj : dataArray) {
-                    if (obj instanceof JSONObject) {
-                        JSONObject jsonData = (JSONObject) obj;
-                        Item item = new Item();
-                        item.setState(jsonData.get("state").toString());
-                        item.setCategory(jsonData.get("category").toString());
-                        item.setWarehouse(Integer.parseInt(jsonData.get("warehouse").toString()));
-                        String date = jsonData.get("date_of_stock").toString();
-                        // System.out.println("Item Date " + date);
-                        item.setDateOfStock(new SimpleDateFormat("yyyy-MM-dd hh:mm:ss").parse(date));
-                        // System.out.println(item);
-
-                        ITEM_LIST.add(item);
-                    }
+        LISTENERS.add(new CacheInvalidator());
+        Metrics.gauge("stock.size", () -> STOCK.size());
+        Metrics.gauge("stock.cache.search.size", SEARCH_CACHE::size);
+        Metrics.gauge("stock.cache.search.hits", SEARCH_CACHE::getHits);
+        Metrics.gauge("stock.cache.search.misses", SEARCH_CACHE::getMisses);
+        Metrics.gauge("stock.cache.search.evictions", SEARCH_CACHE::getEvictions);
+        Metrics.gauge("stock.cache.search.invalidations", SEARCH_CACHE::getInvalidations);
+        long start = LOAD.start();
+        try {
+            File source = new File(STOCK_FILE);
+            File snapshot = new File(STOCK_SNAPSHOT);
+            STOCK = StockSnapshot.of(loadItems(source, snapshot));
+
+            if (Boolean.parseBoolean(System.getProperty(PERSIST_PROPERTY, "true"))) {
+                StockChangeLog changes = null;
+                try {
+                    changes = StockChangeLog.open(new File(STOCK_CHANGES), snapshot, source,
+                            StockChangeLog.DEFAULT_COMPACT_THRESHOLD);
+                } catch (IOException e) {
+                    // e.g. another process writes the log; this one keeps its changes in memory
+                    System.err.println("Stock changes are not saved: " + e.getMessage());
+                }
+                if (changes != null) {
+                    STOCK = changes.replay(STOCK);
+                    LISTENERS.add(changes);
+                    CHANGES = changes;
+                    Runtime.getRuntime().addShutdownHook(new Thread(changes::close));
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
+            LOAD.stop(start);
+        }
+    }
+
+    /**
+     * Load the items from the snapshot if it is up to date, otherwise parse the stock file
+     * and write a new snapshot for the next start
+     *
+     * @param source the stock.json file
+     * @param snapshot the binary snapshot of the stock file
+     * @return
+     * @throws IOException
+     */
+    static List<Item> loadItems(File source, File snapshot) throws IOException {
+        if (StockSnapshotFile.isFresh(snapshot, source)) {
+            try {
+                return StockSnapshotFile.open(snapshot).readItems();
+            } catch (IOException e) {
+                // fall back to the stock file
             }
         }
+
+        List<Item> items = ParallelStockLoader.loadItems(source.getPath());
+        try {
+            StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        } catch (IOException e) {
+            // the snapshot is only an optimization, the stock file stays the source of truth
+        }
+        return items;
+    }
+
+    /**
+     * Check whether changes of the stock are saved to the change log
+     *
+     * @return false if persistence is turned off or the log is in use by another process
+     */
+    public static boolean isPersistent() {
+        return CHANGES != null;
+    }
+
+    /**
+     * Register a listener for all further changes of the stock
+     *
+     * @param listener
+     */
+    public static void addChangeListener(StockListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Remove a listener registered with addChangeListener
+     *
+     * @param listener
+     */
+    public static void removeChangeListener(StockListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Get the current state of the stock. The snapshot stays unchanged while the repository
+     * moves on, so long reports can iterate it consistently.
+     *
+     * @return
+     */
+    public static StockSnapshot snapshot() {
+        return STOCK;
     }
 
     /**
@@ -70,23 +186,371 @@ public class StockRepository {
      * @return
      */
     public static List<Item> getAllItems() {
-        return ITEM_LIST;
+        return STOCK.getAllItems();
     }
 
-    // By Warehouse
     /**
-     * Get the list of unique warehouse IDs
+     * Replace the whole stock with the given items
+     *
+     * @param items
+     * @throws IllegalArgumentException if an item has no state, category or date of stock
+     */
+    public static void replaceAllItems(List<Item> items) {
+        for (Item item : items) {
+            checkComplete(item);
+        }
+        StockSnapshot replacement = StockSnapshot.of(items);
+        STOCK_LOCK.writeLock().lock();
+        try {
+            STOCK = replacement;
+            for (StockListener listener : LISTENERS) {
+                listener.stockReplaced(replacement);
+            }
+        } finally {
+            STOCK_LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read the stock file again and apply the difference to the current stock.
+     * The file is parsed and compared without blocking anyone; only the changed items are then applied
+     * as one change, so readers switch from the old stock to the new one in a single step.
+     *
+     * @return the number of items added and removed
+     * @throws IOException
+     */
+    public static int reload() throws IOException {
+        long start = RELOAD.start();
+        try {
+            return reload(ParallelStockLoader.loadItems(STOCK_FILE));
+        } finally {
+            RELOAD.stop(start);
+        }
+    }
+
+    /**
+     * Make the stock equal to the given items, changing only what differs
+     *
+     * @param items
+     * @return the number of items added and removed
+     */
+    static int reload(List<Item> items) {
+        StockSnapshot base = STOCK;
+        List<StockChange> diff = diff(base.getAllItems(), items);
+        STOCK_LOCK.writeLock().lock();
+        try {
+            int changed = update(stock -> {
+                // compare again if the stock moved on while the file was compared
+                List<StockChange> changes = (STOCK == base) ? diff : diff(STOCK.getAllItems(), items);
+                apply(stock, changes);
+                return changes.size();
+            });
+            // the persisted stock now has to follow the new stock file
+            if (CHANGES != null) CHANGES.checkpoint(STOCK);
+            return changed;
+        } finally {
+            STOCK_LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read the stock file again and apply the difference to the items of one warehouse only.
+     * The other warehouses keep their current items and stay open for changes while it is reloaded.
+     * A warehouse that is not in stock yet is loaded.
+     *
+     * @param warehouse
+     * @return the number of items added and removed
+     * @throws IOException
+     */
+    public static int reloadWarehouse(int warehouse) throws IOException {
+        long start = RELOAD.start();
+        try {
+            List<Item> items = new ArrayList<Item>();
+            for (Item item : ParallelStockLoader.loadItems(STOCK_FILE)) {
+                if (item.getWarehouse() == warehouse) items.add(item);
+            }
+            return reloadWarehouse(warehouse, items);
+        } finally {
+            RELOAD.stop(start);
+        }
+    }
+
+    /**
+     * Make the items of one warehouse equal to the given items, changing only what differs
+     *
+     * @param warehouse
+     * @param items the items of the warehouse
+     * @return the number of items added and removed
+     * @throws IllegalArgumentException if an item is incomplete or in another warehouse
+     */
+    static int reloadWarehouse(int warehouse, List<Item> items) {
+        for (Item item : items) {
+            checkComplete(item);
+            if (item.getWarehouse() != warehouse) {
+                throw new IllegalArgumentException("Item of warehouse " + item.getWarehouse() + " in the reload of warehouse " + warehouse);
+            }
+        }
+        StockSnapshot base = STOCK;
+        List<StockChange> diff = diff(base.getItemsByWarehouse(warehouse), items);
+        int changed = update(Collections.singleton(warehouse), stock -> {
+            // compare again if the warehouse moved on while the file was compared
+            List<StockChange> changes = (STOCK.getPartition(warehouse) == base.getPartition(warehouse))
+                    ? diff : diff(STOCK.getItemsByWarehouse(warehouse), items);
+            apply(stock, changes);
+            return changes.size();
+        });
+        if (changed > 0 && CHANGES != null) {
+            // like a full reload, the persisted stock starts again from the stock file
+            PUBLISH_LOCK.lock();
+            try {
+                CHANGES.checkpoint(STOCK);
+            } finally {
+                PUBLISH_LOCK.unlock();
+            }
+        }
+        return changed;
+    }
+
+    private static void apply(StockSnapshot.Builder stock, List<StockChange> changes) {
+        for (StockChange change : changes) {
+            if (change.isAdded()) stock.add(change.getItem());
+            else stock.remove(change.getItem());
+        }
+    }
+
+    /**
+     * Compute the changes that turn some items of the stock into the given items. Items are compared by value,
+     * unchanged items keep their current instance.
+     *
+     * @param stock the current items
+     * @param items
+     * @return removals first, then additions
+     */
+    static List<StockChange> diff(List<Item> stock, List<Item> items) {
+        Map<ItemKey, ArrayDeque<Item>> current = new HashMap<ItemKey, ArrayDeque<Item>>(stock.size() * 4 / 3 + 1);
+        for (Item item : stock) {
+            current.computeIfAbsent(new ItemKey(item), key -> new ArrayDeque<Item>(1)).add(item);
+        }
+
+        List<StockChange> added = new ArrayList<StockChange>();
+        for (Item item : items) {
+            ArrayDeque<Item> same = current.get(new ItemKey(item));
+            if (same == null || same.poll() == null) added.add(new StockChange(true, item));
+        }
+
+        List<StockChange> changes = new ArrayList<StockChange>();
+        for (ArrayDeque<Item> removed : current.values()) {
+            for (Item item : removed) {
+                changes.add(new StockChange(false, item));
+            }
+        }
+        changes.addAll(added);
+        return changes;
+    }
+
+    /**
+     * Add an item to the repository
+     *
+     * @param item
+     * @throws IllegalArgumentException if the item has no state, category or date of stock
+     */
+    public static void addItem(Item item) {
+        checkComplete(item);
+        update(Collections.singleton(item.getWarehouse()), stock -> {
+            stock.add(item);
+            return null;
+        });
+    }
+
+    /**
+     * Add several items to the repository in one change
+     *
+     * @param items
+     * @throws IllegalArgumentException if an item has no state, category or date of stock
+     */
+    public static void addItems(Collection<Item> items) {
+        for (Item item : items) {
+            checkComplete(item);
+        }
+        update(warehousesOf(items), stock -> {
+            for (Item item : items) {
+                stock.add(item);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Remove an item from the repository
+     *
+     * @param item
+     * @return whether the item was in the repository
+     */
+    public static boolean removeItem(Item item) {
+        return update(Collections.singleton(item.getWarehouse()), stock -> stock.remove(item));
+    }
+
+    /**
+     * Move an item to another warehouse. The item is replaced by a copy stocked in the
+     * target warehouse, items already handed out are never changed in place.
+     *
+     * @param item
+     * @param warehouse the target warehouse
+     * @return the transferred item, or null if the item was not in the repository
+     */
+    public static Item transferItem(Item item, int warehouse) {
+        Item transferred = copyOf(item, warehouse);
+        return update(Arrays.asList(item.getWarehouse(), warehouse), stock -> {
+            if (!stock.remove(item)) return null;
+            stock.add(transferred);
+            return transferred;
+        });
+    }
+
+    /**
+     * Apply a change to the whole stock and publish the result. The change excludes all others,
+     * readers keep seeing the previous snapshot until it is complete.
+     * If the change throws, nothing is published. Listeners are told about the change
+     * before the next one can be published, so they see all changes in order.
+     *
+     * @param change
+     * @return the result of the change
+     */
+    static <R> R update(Function<StockSnapshot.Builder, R> change) {
+        long start = UPDATE.start();
+        STOCK_LOCK.writeLock().lock();
+        try {
+            StockSnapshot.Builder stock = STOCK.edit();
+            R result = change.apply(stock);
+            publish(stock);
+            return result;
+        } finally {
+            STOCK_LOCK.writeLock().unlock();
+            UPDATE.stop(start);
+        }
+    }
+
+    /**
+     * Apply a change to some warehouses and publish the result. Changes to the same warehouse are serialized,
+     * changes to other warehouses run at the same time. Otherwise like update(change).
+     *
+     * @param warehouses the warehouses the change may touch
+     * @param change
+     * @return the result of the change
+     * @throws IllegalStateException if the change touches another warehouse, nothing is published then
+     */
+    static <R> R update(Collection<Integer> warehouses, Function<StockSnapshot.Builder, R> change) {
+        long start = UPDATE.start();
+        // always locked in the same order, so two changes never wait for each other's warehouses
+        List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+        for (int warehouse : new TreeSet<Integer>(warehouses)) {
+            locks.add(WAREHOUSE_LOCKS.computeIfAbsent(warehouse, key -> new ReentrantLock()));
+        }
+        STOCK_LOCK.readLock().lock();
+        try {
+            for (ReentrantLock lock : locks) {
+                lock.lock();
+            }
+            try {
+                // no one else can change these warehouses now, whatever else is published meanwhile
+                StockSnapshot.Builder stock = STOCK.edit(warehouses);
+                R result = change.apply(stock);
+                publish(stock);
+                return result;
+            } finally {
+                for (int i = locks.size() - 1; i >= 0; i--) {
+                    locks.get(i).unlock();
+                }
+            }
+        } finally {
+            STOCK_LOCK.readLock().unlock();
+            UPDATE.stop(start);
+        }
+    }
+
+    /**
+     * Put the warehouses changed by a builder into the latest snapshot and tell the listeners
+     */
+    private static void publish(StockSnapshot.Builder stock) {
+        Map<Integer, WarehouseStock> warehouses = stock.buildWarehouses();
+        if (warehouses.isEmpty()) return;
+        PUBLISH_LOCK.lock();
+        try {
+            StockSnapshot next = STOCK.with(warehouses);
+            STOCK = next;
+
+            List<StockChange> changes = stock.changes();
+            if (!changes.isEmpty()) {
+                for (StockListener listener : LISTENERS) {
+                    listener.stockChanged(next, changes);
+                }
+            }
+        } finally {
+            PUBLISH_LOCK.unlock();
+        }
+    }
+
+    /**
+     * The warehouses of the given items, e.g. for update(warehouses, change)
      *
+     * @param items
      * @return
      */
-    public static Set<Integer> getWarehouses() {
+    static Set<Integer> warehousesOf(Collection<Item> items) {
         Set<Integer> warehouses = new HashSet<Integer>();
-        for (Item item : getAllItems()) {
+        for (Item item : items) {
             warehouses.add(item.getWarehouse());
         }
         return warehouses;
     }
 
+    /**
+     * Check that an item can be stocked. The change log, the snapshot file and the columnar store
+     * all store the state, category and date of stock of every item.
+     *
+     * @param item
+     * @throws IllegalArgumentException if one of them is missing
+     */
+    static void checkComplete(Item item) {
+        if (item == null) throw new IllegalArgumentException("No item");
+        if (item.getState() == null || item.getCategory() == null || item.getDateOfStock() == null) {
+            throw new IllegalArgumentException("Item without state, category or date of stock in warehouse " + item.getWarehouse());
+        }
+    }
+
+    static Item copyOf(Item item, int warehouse) {
+        Item copy = new Item();
+        copy.setState(item.getState());
+        copy.setCategory(item.getCategory());
+        copy.setWarehouse(warehouse);
+        copy.setDateOfStock(item.getDateOfStock());
+        return copy;
+    }
+
+    /**
+     * Copy the current stock into a column oriented store
+     *
+     * @return
+     */
+    public static ColumnarStockStore toColumnarStore() {
+        return ColumnarStockStore.of(getAllItems());
+    }
+
+    // By Warehouse
+    /**
+     * Get the list of unique warehouse IDs
+     *
+     * @return
+     */
+    public static Set<Integer> getWarehouses() {
+        long start = GET_WAREHOUSES.start();
+        try {
+            return new HashSet<Integer>(STOCK.getWarehouses());
+        } finally {
+            GET_WAREHOUSES.stop(start);
+        }
+    }
+
     /**
      * Get the list of all items in a specific warehouse
      *
@@ -94,7 +558,40 @@ public class StockRepository {
      * @return
      */
     public static List<Item> getItemsByWarehouse(int warehouse) {
-        return getItemsByWarehouse(warehouse, getAllItems());
+        return STOCK.getItemsByWarehouse(warehouse);
+    }
+
+    /**
+     * Get one page of the items in a specific warehouse. Further pages come from ItemPage.next(),
+     * so the whole listing is taken from the same state of the stock.
+     *
+     * @param warehouse
+     * @param offset
+     * @param limit the maximum number of items per page
+     * @return
+     */
+    public static ItemPage getItemPageByWarehouse(int warehouse, int offset, int limit) {
+        return ItemPage.of(STOCK.getItemsByWarehouse(warehouse), offset, limit);
+    }
+
+    /**
+     * Get the items in a specific warehouse as a lazy stream
+     *
+     * @param warehouse
+     * @return
+     */
+    public static Stream<Item> streamItemsByWarehouse(int warehouse) {
+        return STOCK.getItemsByWarehouse(warehouse).stream();
+    }
+
+    /**
+     * Get the number of items in a specific warehouse
+     *
+     * @param warehouse
+     * @return
+     */
+    public static int getItemCountByWarehouse(int warehouse) {
+        return STOCK.getItemCountByWarehouse(warehouse);
     }
 
     /**
@@ -120,11 +617,12 @@ public class StockRepository {
      * @return
      */
     public static Set<String> getCategories() {
-        Set<String> categories = new HashSet<String>();
-        for (Item item : getAllItems()) {
-            categories.add(item.getCategory());
+        long start = GET_CATEGORIES.start();
+        try {
+            return STOCK.getCategories();
+        } finally {
+            GET_CATEGORIES.stop(start);
         }
-        return categories;
     }
 
     /**
@@ -134,7 +632,40 @@ public class StockRepository {
      * @return
      */
     public static List<Item> getItemsByCategory(String category) {
-        return getItemsByCategory(category, getAllItems());
+        return STOCK.getItemsByCategory(category);
+    }
+
+    /**
+     * Get one page of the items of a specific category. Further pages come from ItemPage.next(),
+     * so the whole listing is taken from the same state of the stock.
+     *
+     * @param category
+     * @param offset
+     * @param limit the maximum number of items per page
+     * @return
+     */
+    public static ItemPage getItemPageByCategory(String category, int offset, int limit) {
+        return ItemPage.of(STOCK.getItemsByCategory(category), offset, limit);
+    }
+
+    /**
+     * Get the items of a specific category as a lazy stream
+     *
+     * @param category
+     * @return
+     */
+    public static Stream<Item> streamItemsByCategory(String category) {
+        return STOCK.getItemsByCategory(category).stream();
+    }
+
+    /**
+     * Get the number of items of a specific category
+     *
+     * @param category
+     * @return
+     */
+    public static int getItemCountByCategory(String category) {
+        return STOCK.getItemCountByCategory(category);
     }
 
     /**
@@ -152,4 +683,175 @@ public class StockRepository {
         }
         return items;
     }
-}
\ No newline at end of file
+
+    // By Date of stock
+    /**
+     * Get the items that have been in stock for at least the given number of days, oldest first
+     *
+     * @param days
+     * @return
+     */
+    public static List<Item> getItemsInStockForAtLeast(int days) {
+        long start = GET_ITEMS_IN_STOCK_FOR.start();
+        try {
+            return STOCK.getAgeIndex().getItemsInStockForAtLeast(days, System.currentTimeMillis());
+        } finally {
+            GET_ITEMS_IN_STOCK_FOR.stop(start);
+        }
+    }
+
+    /**
+     * Get the items stocked from the first up to the second time, oldest first
+     *
+     * @param from epoch milliseconds, inclusive
+     * @param to epoch milliseconds, exclusive
+     * @return
+     */
+    public static List<Item> getItemsStockedBetween(long from, long to) {
+        return STOCK.getAgeIndex().getItemsStockedBetween(from, to);
+    }
+
+    /**
+     * Get the oldest items of a warehouse, oldest first
+     *
+     * @param warehouse
+     * @param limit
+     * @return
+     */
+    public static List<Item> getOldestItems(int warehouse, int limit) {
+        return STOCK.getAgeIndex().getOldestItems(warehouse, limit);
+    }
+
+    // By Name
+    /**
+     * Get the items with the given name ("state category", ignoring case) per warehouse
+     *
+     * @param name
+     * @return
+     */
+    public static Map<Integer, List<Item>> getItemsByName(String name) {
+        long start = GET_ITEMS_BY_NAME.start();
+        try {
+            return SEARCH_CACHE.get(ItemNameIndex.normalize(name), key -> STOCK.getItemsByName(key));
+        } finally {
+            GET_ITEMS_BY_NAME.stop(start);
+        }
+    }
+
+    /**
+     * Get the number of items with the given name per warehouse, counted by every warehouse in parallel
+     *
+     * @param name
+     * @return counts by warehouse, warehouses without items of the name are left out
+     */
+    public static Map<Integer, Integer> getItemCountsByName(String name) {
+        return STOCK.getItemCountsByName(name);
+    }
+
+    /**
+     * Get the names of all items starting with the given prefix
+     *
+     * @param prefix
+     * @return
+     */
+    public static List<String> getItemNamesStartingWith(String prefix) {
+        long start = GET_NAMES_STARTING_WITH.start();
+        try {
+            return STOCK.getItemNamesStartingWith(prefix);
+        } finally {
+            GET_NAMES_STARTING_WITH.stop(start);
+        }
+    }
+
+    /**
+     * Get the names of all items containing the given text
+     *
+     * @param text
+     * @return
+     */
+    public static List<String> getItemNamesContaining(String text) {
+        long start = GET_NAMES_CONTAINING.start();
+        try {
+            return STOCK.getItemNamesContaining(text);
+        } finally {
+            GET_NAMES_CONTAINING.stop(start);
+        }
+    }
+
+    /**
+     * Get the item names closest to the given text, tolerating typos, with their stock per warehouse.
+     * Only the distinct names are searched, never the items.
+     *
+     * @param text
+     * @param limit the maximum number of names
+     * @return the most similar name first
+     */
+    public static List<ItemMatch> findSimilarItems(String text, int limit) {
+        long start = FIND_SIMILAR_ITEMS.start();
+        try {
+            return STOCK.findSimilarItems(text, MIN_NAME_SIMILARITY, limit);
+        } finally {
+            FIND_SIMILAR_ITEMS.stop(start);
+        }
+    }
+
+    /**
+     * Get the cache of search results, e.g. to size it by its hit and eviction counts
+     *
+     * @return
+     */
+    public static QueryCache<String, Map<Integer, List<Item>>> getSearchCache() {
+        return SEARCH_CACHE;
+    }
+
+    /**
+     * Drops the cached results of the names a change touches
+     */
+    private static final class CacheInvalidator implements StockListener {
+        @Override
+        public void stockChanged(StockSnapshot stock, List<StockChange> changes) {
+            Set<String> names = new HashSet<String>();
+            for (StockChange change : changes) {
+                names.add(ItemNameIndex.nameOf(change.getItem()));
+            }
+            for (String name : names) {
+                SEARCH_CACHE.invalidate(name);
+            }
+        }
+
+        @Override
+        public void stockReplaced(StockSnapshot stock) {
+            SEARCH_CACHE.invalidateAll();
+        }
+    }
+
+    /**
+     * The values of an item, for comparing items of different loads
+     */
+    private static final class ItemKey {
+        private final String state;
+        private final String category;
+        private final int warehouse;
+        private final Date dateOfStock;
+
+        ItemKey(Item item) {
+            this.state = item.getState();
+            this.category = item.getCategory();
+            this.warehouse = item.getWarehouse();
+            this.dateOfStock = item.getDateOfStock();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ItemKey)) return false;
+            ItemKey key = (ItemKey) other;
+            return warehouse == key.warehouse && state.equals(key.state) && category.equals(key.category)
+                    && Objects.equals(dateOfStock, key.dateOfStock);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((state.hashCode() * 31 + category.hashCode()) * 31 + warehouse) * 31 + Objects.hashCode(dateOfStock);
+        }
+    }
+}
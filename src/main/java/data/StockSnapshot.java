@@ -0,0 +1,459 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An immutable, consistent view of the stock together with its secondary indexes:
+ * items per warehouse, per category and per name, and on first use by date of stock.
+ * The stock is partitioned by warehouse, every WarehouseStock has its own indexes, and queries across
+ * warehouses ask the partitions in parallel and merge their answers.
+ * A snapshot never changes once published, so it can be read and iterated by any number of
+ * threads without locking. Changes are made through a copy-on-write Builder that only copies
+ * the partitions, and within them the buckets, it touches.
+ *
+ */
+public final class StockSnapshot {
+
+    static final StockSnapshot EMPTY = new StockSnapshot(new HashMap<Integer, WarehouseStock>(), 0);
+
+    // queries across fewer warehouses than this, or on a single processor, ask them one after the other
+    private static final int MIN_PARALLEL_WAREHOUSES = 8;
+
+    private final Map<Integer, WarehouseStock> warehouses;
+    private final int size;
+
+    // all items, assembled from the warehouses on first use
+    private volatile List<Item> allItems;
+    // items by date of stock, combined from those of the warehouses on first use
+    private volatile StockAgeIndex ageIndex;
+
+    private StockSnapshot(Map<Integer, WarehouseStock> warehouses, int size) {
+        this.warehouses = warehouses;
+        this.size = size;
+    }
+
+    /**
+     * The key a category is indexed under, categories are matched ignoring case
+     *
+     * @param category
+     * @return
+     */
+    static String categoryKey(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Build a snapshot of the given items. The items are not recorded as changes,
+     * a fresh snapshot has no listeners and no earlier age index to merge them into.
+     *
+     * @param items
+     * @return
+     */
+    static StockSnapshot of(Collection<Item> items) {
+        Builder builder = new Builder(EMPTY, null, false);
+        for (Item item : items) {
+            builder.add(item);
+        }
+        return builder.build();
+    }
+
+    Builder edit() {
+        return new Builder(this, null, true);
+    }
+
+    /**
+     * Edit the given warehouses only
+     *
+     * @param warehouses
+     * @return a builder that refuses changes to other warehouses
+     */
+    Builder edit(Collection<Integer> warehouses) {
+        return new Builder(this, new HashSet<Integer>(warehouses), true);
+    }
+
+    /**
+     * This snapshot with some warehouses replaced
+     *
+     * @param changed the new partitions by warehouse, the built partitions of a Builder
+     * @return
+     */
+    StockSnapshot with(Map<Integer, WarehouseStock> changed) {
+        if (changed.isEmpty()) return this;
+        Map<Integer, WarehouseStock> next = new HashMap<Integer, WarehouseStock>(warehouses);
+        int nextSize = size;
+        for (WarehouseStock partition : changed.values()) {
+            WarehouseStock previous = (partition.size() == 0) ? next.remove(partition.getWarehouse())
+                    : next.put(partition.getWarehouse(), partition);
+            nextSize += partition.size() - ((previous == null) ? 0 : previous.size());
+        }
+        return new StockSnapshot(next, nextSize);
+    }
+
+    /**
+     * The partition of a warehouse
+     *
+     * @param warehouse
+     * @return null if the warehouse has no items
+     */
+    WarehouseStock getPartition(int warehouse) {
+        return warehouses.get(warehouse);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get all items of this snapshot, grouped by warehouse
+     *
+     * @return
+     */
+    public List<Item> getAllItems() {
+        List<Item> items = allItems;
+        if (items == null) {
+            List<Item> all = new ArrayList<Item>(size);
+            for (WarehouseStock partition : warehouses.values()) {
+                all.addAll(partition.getItems());
+            }
+            items = Collections.unmodifiableList(all);
+            allItems = items;
+        }
+        return items;
+    }
+
+    public Set<Integer> getWarehouses() {
+        return Collections.unmodifiableSet(warehouses.keySet());
+    }
+
+    /**
+     * Get the unique categories, each under the name of one of its items
+     *
+     * @return
+     */
+    public Set<String> getCategories() {
+        Map<String, String> categories = new HashMap<String, String>();
+        for (WarehouseStock partition : warehouses.values()) {
+            for (Map.Entry<String, String> category : partition.getCategories().entrySet()) {
+                categories.putIfAbsent(category.getKey(), category.getValue());
+            }
+        }
+        return new HashSet<String>(categories.values());
+    }
+
+    public List<Item> getItemsByWarehouse(int warehouse) {
+        WarehouseStock partition = warehouses.get(warehouse);
+        return (partition == null) ? Collections.<Item>emptyList() : view(partition.getItems());
+    }
+
+    /**
+     * Get the items of a category, grouped by warehouse. The buckets of the warehouses are joined
+     * without copying their items.
+     *
+     * @param category
+     * @return
+     */
+    public List<Item> getItemsByCategory(String category) {
+        String key = categoryKey(category);
+        List<List<Item>> buckets = new ArrayList<List<Item>>();
+        for (WarehouseStock partition : warehouses.values()) {
+            List<Item> items = partition.getItemsByCategory(key);
+            if (items != null) buckets.add(items);
+        }
+        if (buckets.isEmpty()) return Collections.emptyList();
+        return view((buckets.size() == 1) ? buckets.get(0) : ItemChunks.concat(buckets));
+    }
+
+    public int getItemCountByWarehouse(int warehouse) {
+        WarehouseStock partition = warehouses.get(warehouse);
+        return (partition == null) ? 0 : partition.size();
+    }
+
+    public int getItemCountByCategory(String category) {
+        String key = categoryKey(category);
+        int count = 0;
+        for (WarehouseStock partition : warehouses.values()) {
+            count += partition.getItemCountByCategory(key);
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of items of a category per warehouse, without looking at the items
+     *
+     * @param category
+     * @return counts by warehouse, warehouses without items of the category are left out
+     */
+    public Map<Integer, Integer> getItemCountsByWarehouse(String category) {
+        String key = categoryKey(category);
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (WarehouseStock partition : warehouses.values()) {
+            int count = partition.getItemCountByCategory(key);
+            if (count > 0) counts.put(partition.getWarehouse(), count);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Get the items with the given name per warehouse, asking all warehouses in parallel
+     *
+     * @param name
+     * @return
+     */
+    public Map<Integer, List<Item>> getItemsByName(String name) {
+        String normalized = ItemNameIndex.normalize(name);
+        List<Integer> warehouseIds = new ArrayList<Integer>(warehouses.keySet());
+        List<List<Item>> found = fanOut(warehouseIds, warehouse -> warehouses.get(warehouse).getNameIndex().items(normalized, warehouse));
+        Map<Integer, List<Item>> items = new HashMap<Integer, List<Item>>();
+        for (int i = 0; i < warehouseIds.size(); i++) {
+            if (found.get(i) != null) items.put(warehouseIds.get(i), Collections.unmodifiableList(found.get(i)));
+        }
+        return Collections.unmodifiableMap(items);
+    }
+
+    /**
+     * Get the number of items with the given name per warehouse, asking all warehouses in parallel
+     *
+     * @param name
+     * @return counts by warehouse, warehouses without items of the name are left out
+     */
+    public Map<Integer, Integer> getItemCountsByName(String name) {
+        String normalized = ItemNameIndex.normalize(name);
+        List<Integer> warehouseIds = new ArrayList<Integer>(warehouses.keySet());
+        List<List<Item>> found = fanOut(warehouseIds, warehouse -> warehouses.get(warehouse).getNameIndex().items(normalized, warehouse));
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int i = 0; i < warehouseIds.size(); i++) {
+            if (found.get(i) != null) counts.put(warehouseIds.get(i), found.get(i).size());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    public List<String> getItemNamesStartingWith(String prefix) {
+        String normalized = ItemNameIndex.normalize(prefix);
+        return merge(fanOut(partition -> partition.getNameIndex().namesStartingWith(normalized, new TreeMap<String, String>())));
+    }
+
+    public List<String> getItemNamesContaining(String text) {
+        String normalized = ItemNameIndex.normalize(text);
+        return merge(fanOut(partition -> partition.getNameIndex().namesContaining(normalized, new TreeMap<String, String>())));
+    }
+
+    /**
+     * Get the item names closest to the given text, tolerating typos, with their stock per warehouse
+     *
+     * @param text
+     * @param minimumSimilarity between 0 and 1, the share of trigrams a name must have in common with the text
+     * @param limit the maximum number of names
+     * @return the most similar name first
+     */
+    public List<ItemMatch> findSimilarItems(String text, double minimumSimilarity, int limit) {
+        String normalized = ItemNameIndex.normalize(text);
+        List<ItemNameIndex> indexes = new ArrayList<ItemNameIndex>(warehouses.size());
+        for (WarehouseStock partition : warehouses.values()) {
+            indexes.add(partition.getNameIndex());
+        }
+        return ItemNameIndex.matches(indexes, fanOut(indexes, index -> index.similarNames(normalized, minimumSimilarity, limit)), limit);
+    }
+
+    /**
+     * Get the index of the items by date of stock
+     *
+     * @return
+     */
+    public StockAgeIndex getAgeIndex() {
+        StockAgeIndex index = ageIndex;
+        if (index == null) {
+            // warehouses that changed since their index was built are sorted or merged in parallel
+            index = StockAgeIndex.combine(fanOut(WarehouseStock::getAgeIndex));
+            ageIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Check whether the given item instance is part of this snapshot
+     *
+     * @param item
+     * @return
+     */
+    public boolean contains(Item item) {
+        WarehouseStock partition = warehouses.get(item.getWarehouse());
+        return partition != null && partition.getNameIndex().contains(item);
+    }
+
+    /**
+     * Ask every warehouse, in parallel on the common fork/join pool if there are enough of them
+     *
+     * @return the answers in the order of the warehouses
+     */
+    private <T> List<T> fanOut(Function<WarehouseStock, T> query) {
+        return fanOut(warehouses.values(), query);
+    }
+
+    private static <P, T> List<T> fanOut(Collection<P> partitions, Function<P, T> query) {
+        Stream<P> stream = partitions.stream();
+        if (partitions.size() >= MIN_PARALLEL_WAREHOUSES && ForkJoinPool.getCommonPoolParallelism() > 1) stream = stream.parallel();
+        return stream.map(query).collect(Collectors.toList());
+    }
+
+    /**
+     * Merge the names found in the warehouses, in alphabetical order
+     */
+    private static List<String> merge(List<TreeMap<String, String>> found) {
+        TreeMap<String, String> names = new TreeMap<String, String>();
+        for (TreeMap<String, String> warehouseNames : found) {
+            for (Map.Entry<String, String> name : warehouseNames.entrySet()) {
+                names.putIfAbsent(name.getKey(), name.getValue());
+            }
+        }
+        return new ArrayList<String>(names.values());
+    }
+
+    private static List<Item> view(List<Item> items) {
+        return (items == null) ? Collections.<Item>emptyList() : Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Copy-on-write editor of a snapshot. Each warehouse is edited through its own partition builder,
+     * so a batch of changes costs one copy of every bucket it touches in the warehouses it touches.
+     */
+    static final class Builder {
+        private final StockSnapshot base;
+        // the warehouses this builder may change, null for all
+        private final Set<Integer> scope;
+        private final boolean recordChanges;
+        private final Map<Integer, WarehouseStock.Builder> edited = new HashMap<Integer, WarehouseStock.Builder>();
+        // null if the changes are not recorded
+        private final List<StockChange> changes;
+        private int size;
+
+        private Builder(StockSnapshot base, Set<Integer> scope, boolean recordChanges) {
+            this.base = base;
+            this.scope = scope;
+            this.recordChanges = recordChanges;
+            this.changes = recordChanges ? new ArrayList<StockChange>() : null;
+            this.size = base.size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(Item item) {
+            partition(item.getWarehouse()).add(item);
+            if (changes != null) changes.add(new StockChange(true, item));
+            size++;
+        }
+
+        /**
+         * Remove an item instance
+         *
+         * @param item
+         * @return whether the item was in the snapshot
+         */
+        boolean remove(Item item) {
+            if (!partition(item.getWarehouse()).remove(item)) return false;
+            if (changes != null) changes.add(new StockChange(false, item));
+            size--;
+            return true;
+        }
+
+        /**
+         * Remove many item instances at once. Every bucket they are in is filtered a single time,
+         * where removing them one by one searches and shifts the bucket for every item.
+         *
+         * @param items
+         * @return the number of the items that were in the snapshot and have been removed
+         */
+        int removeAll(Collection<Item> items) {
+            Map<Integer, Set<Item>> byWarehouse = new HashMap<Integer, Set<Item>>();
+            for (Item item : items) {
+                byWarehouse.computeIfAbsent(item.getWarehouse(),
+                        warehouse -> Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>())).add(item);
+            }
+            int count = 0;
+            for (Map.Entry<Integer, Set<Item>> entry : byWarehouse.entrySet()) {
+                for (Item item : partition(entry.getKey()).removeAll(entry.getValue())) {
+                    if (changes != null) changes.add(new StockChange(false, item));
+                    count++;
+                }
+            }
+            size -= count;
+            return count;
+        }
+
+        /**
+         * Remove an item equal in all fields to the given values
+         *
+         * @return the removed item, or null if there is none
+         */
+        Item removeMatching(String state, String category, int warehouse, long epochSecond) {
+            WarehouseStock.Builder partition = partition(warehouse);
+            List<Item> candidates = partition.itemsByName(ItemNameIndex.normalize(state + " " + category));
+            if (candidates == null) return null;
+            for (int i = candidates.size() - 1; i >= 0; i--) {
+                Item item = candidates.get(i);
+                if (item.getState().equals(state) && item.getCategory().equals(category)
+                        && item.getDateOfStock().getTime() / 1000L == epochSecond) {
+                    remove(item);
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The changes made through this builder, in order
+         */
+        List<StockChange> changes() {
+            return (changes == null) ? Collections.<StockChange>emptyList() : Collections.unmodifiableList(changes);
+        }
+
+        /**
+         * Build the changed warehouses only, to be put into a snapshot with StockSnapshot.with()
+         *
+         * @return the new partitions by warehouse, empty ones for warehouses without items left
+         */
+        Map<Integer, WarehouseStock> buildWarehouses() {
+            Map<Integer, WarehouseStock> built = new HashMap<Integer, WarehouseStock>();
+            for (Map.Entry<Integer, WarehouseStock.Builder> entry : edited.entrySet()) {
+                WarehouseStock previous = base.warehouses.get(entry.getKey());
+                WarehouseStock partition = entry.getValue().build();
+                if (partition != previous && (previous != null || partition.size() > 0)) {
+                    built.put(entry.getKey(), partition);
+                }
+            }
+            return built;
+        }
+
+        StockSnapshot build() {
+            return base.with(buildWarehouses());
+        }
+
+        private WarehouseStock.Builder partition(int warehouse) {
+            WarehouseStock.Builder partition = edited.get(warehouse);
+            if (partition == null) {
+                if (scope != null && !scope.contains(warehouse)) {
+                    throw new IllegalStateException("Warehouse " + warehouse + " is not part of this change");
+                }
+                WarehouseStock current = base.warehouses.get(warehouse);
+                partition = ((current == null) ? WarehouseStock.empty(warehouse) : current).edit(recordChanges);
+                edited.put(warehouse, partition);
+            }
+            return partition;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package main.java.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of the stock, read through a memory mapping.
+ *
+ * Layout (big endian):
+ * <pre>
+ * header      magic, version, source length, source last modified, change sequence, record count, records offset
+ * dictionary  state count, then per state: length and UTF-8 bytes
+ * dictionary  category count, then per category: length and UTF-8 bytes
+ * records     fixed width: state code, category code, warehouse, epoch seconds
+ * </pre>
+ * The source length and modification time tell whether the snapshot is still in line with its stock.json.
+ * The change sequence is the last change of the StockChangeLog already contained in the snapshot,
+ * 0 for a plain copy of the stock file.
+ *
+ */
+public class StockSnapshotFile {
+
+    private static final int MAGIC = 0x574D5353; // "WMSS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 8;
+    static final int RECORD_SIZE = 4 + 4 + 4 + 8;
+
+    private final MappedByteBuffer buffer;
+    private final String[] states;
+    private final String[] categories;
+    private final long changeSequence;
+    private final int size;
+    private final int recordsOffset;
+
+    private StockSnapshotFile(MappedByteBuffer buffer, String[] states, String[] categories, long changeSequence,
+                              int size, int recordsOffset) {
+        this.buffer = buffer;
+        this.changeSequence = changeSequence;
+        this.states = states;
+        this.categories = categories;
+        this.size = size;
+        this.recordsOffset = recordsOffset;
+    }
+
+    /**
+     * Check whether a snapshot exists and was written from the current version of the source file
+     *
+     * @param snapshot
+     * @param source
+     * @return
+     */
+    public static boolean isFresh(File snapshot, File source) {
+        if (!snapshot.isFile() || !source.isFile()) return false;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // read the complete header
+            }
+            if (header.hasRemaining()) return false;
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION
+                    && header.getLong() == source.length() && header.getLong() == source.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Map a snapshot file into memory. Only the dictionaries are decoded, records are read in place.
+     *
+     * @param snapshot
+     * @return
+     * @throws IOException
+     */
+    public static StockSnapshotFile open(File snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Stock snapshot too large to map: " + snapshot);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a stock snapshot: " + snapshot);
+            if (buffer.getInt() != VERSION) throw new IOException("Unsupported stock snapshot version: " + snapshot);
+            buffer.getLong(); // source length
+            buffer.getLong(); // source last modified
+            long changeSequence = buffer.getLong();
+            int size = buffer.getInt();
+            long recordsOffset = buffer.getLong();
+
+            String[] states = readDictionary(buffer);
+            String[] categories = readDictionary(buffer);
+            if (recordsOffset + (long) size * RECORD_SIZE != channel.size()) {
+                throw new IOException("Truncated stock snapshot: " + snapshot);
+            }
+            return new StockSnapshotFile(buffer, states, categories, changeSequence, size, (int) recordsOffset);
+        }
+    }
+
+    /**
+     * Write a snapshot of the given store, tagged with the source file it was read from.
+     * The file is written next to its destination first and then moved in place.
+     *
+     * @param snapshot
+     * @param store
+     * @param source
+     * @throws IOException
+     */
+    public static void write(File snapshot, ColumnarStockStore store, File source) throws IOException {
+        write(snapshot, store, source, 0);
+    }
+
+    /**
+     * Write a snapshot of the given store that already contains the changes up to the given sequence
+     *
+     * @param snapshot
+     * @param store
+     * @param source
+     * @param changeSequence
+     * @throws IOException
+     */
+    public static void write(File snapshot, ColumnarStockStore store, File source, long changeSequence) throws IOException {
+        File temp = new File(snapshot.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[][] states = encode(store.getStates().values());
+            byte[][] categories = encode(store.getCategories().values());
+            long recordsOffset = HEADER_SIZE + dictionarySize(states) + dictionarySize(categories);
+
+            ByteBuffer header = ByteBuffer.allocate((int) recordsOffset);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putLong(source.length()).putLong(source.lastModified())
+                    .putLong(changeSequence)
+                    .putInt(store.size()).putLong(recordsOffset);
+            putDictionary(header, states);
+            putDictionary(header, categories);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer records = ByteBuffer.allocateDirect(RECORD_SIZE * 4096);
+            for (int i = 0; i < store.size(); i++) {
+                if (records.remaining() < RECORD_SIZE) {
+                    records.flip();
+                    writeFully(channel, records);
+                    records.clear();
+                }
+                records.putInt(store.getStateCode(i))
+                        .putInt(store.getCategoryCode(i))
+                        .putInt(store.getWarehouse(i))
+                        .putLong(store.getEpochSecond(i));
+            }
+            records.flip();
+            writeFully(channel, records);
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    public String getState(int index) {
+        return states[buffer.getInt(offset(index))];
+    }
+
+    public String getCategory(int index) {
+        return categories[buffer.getInt(offset(index) + 4)];
+    }
+
+    public int getWarehouse(int index) {
+        return buffer.getInt(offset(index) + 8);
+    }
+
+    public long getEpochSecond(int index) {
+        return buffer.getLong(offset(index) + 12);
+    }
+
+    /**
+     * Create an Item for the record at the given index
+     *
+     * @param index
+     * @return
+     */
+    public Item get(int index) {
+        int offset = offset(index);
+        Item item = new Item();
+        item.setState(states[buffer.getInt(offset)]);
+        item.setCategory(categories[buffer.getInt(offset + 4)]);
+        item.setWarehouse(buffer.getInt(offset + 8));
+        item.setDateOfStock(new Date(buffer.getLong(offset + 12) * 1000L));
+        return item;
+    }
+
+    /**
+     * Create Items for all records
+     *
+     * @return
+     */
+    public List<Item> readItems() {
+        List<Item> items = new ArrayList<Item>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(get(i));
+        }
+        return items;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        return recordsOffset + index * RECORD_SIZE;
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer) {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private static byte[][] encode(List<String> values) {
+        byte[][] encoded = new byte[values.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static long dictionarySize(byte[][] values) {
+        long bytes = 4;
+        for (byte[] value : values) {
+            bytes += 4 + value.length;
+        }
+        return bytes;
+    }
+
+    private static void putDictionary(ByteBuffer buffer, byte[][] values) {
+        buffer.putInt(values.length);
+        for (byte[] value : values) {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Convert a stock.json file into a snapshot: StockSnapshotFile [stock.json] [snapshot]
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        File source = new File(args.length > 0 ? args[0] : StockRepository.STOCK_FILE);
+        File snapshot = new File(args.length > 1 ? args[1] : StockRepository.STOCK_SNAPSHOT);
+        ColumnarStockStore store = ColumnarStockStore.load(source.getPath());
+        write(snapshot, store, source);
+        System.out.printf("Wrote %d records from %s to %s\n", store.size(), source, snapshot);
+    }
+}
@@ -0,0 +1,75 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of repeated strings: every distinct value gets a dense int code
+ *
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private final List<String> values = new ArrayList<String>();
+
+    /**
+     * Get the code of a value, adding it to the dictionary if it is new
+     *
+     * @param value
+     * @return
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Get the code of a value or -1 if it is not in the dictionary
+     *
+     * @param value
+     * @return
+     */
+    public int codeOf(String value) {
+        Integer code = codes.get(value);
+        return (code == null) ? -1 : code;
+    }
+
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Get all values in code order
+     *
+     * @return
+     */
+    public List<String> values() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Estimate the heap used by the dictionary, assuming compressed references and Latin-1 strings
+     *
+     * @return bytes
+     */
+    long memoryFootprint() {
+        long bytes = 0;
+        for (String value : values) {
+            // the string in the list plus its map entry and boxed code
+            bytes += MemoryLayout.stringSize(value) + 32 + 16 + 8;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,264 @@
+package main.java.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The stock of one warehouse: its items with their own indexes by category, by name and by date of stock.
+ * A StockSnapshot is made of one partition per warehouse. Partitions are immutable and changed through a
+ * copy-on-write Builder like the snapshot, so changes to different warehouses never touch the same index,
+ * and a partition can be rebuilt from its own data without looking at the other warehouses.
+ *
+ */
+final class WarehouseStock {
+
+    // the changes of this many items are always merged into the age index of an earlier partition
+    private static final int MIN_MERGED_CHANGES = 1024;
+
+    private final int warehouse;
+    private final ItemChunks items;
+    // keyed by the case-folded category, see StockSnapshot.categoryKey()
+    private final Map<String, List<Item>> itemsByCategory;
+    // items by "state category" display name
+    private final ItemNameIndex itemsByName;
+
+    // items by date of stock, built on first use from the index of an earlier partition where possible
+    private volatile StockAgeIndex ageIndex;
+    private StockAgeIndex previousAgeIndex;
+    // the changes from the partition of previousAgeIndex to this one, the newest batch first
+    private ChangeBatch changesSincePrevious;
+
+    private WarehouseStock(int warehouse, ItemChunks items, Map<String, List<Item>> itemsByCategory, ItemNameIndex itemsByName) {
+        this.warehouse = warehouse;
+        this.items = items;
+        this.itemsByCategory = itemsByCategory;
+        this.itemsByName = itemsByName;
+    }
+
+    /**
+     * An empty partition for the given warehouse
+     *
+     * @param warehouse
+     * @return
+     */
+    static WarehouseStock empty(int warehouse) {
+        return new WarehouseStock(warehouse, ItemChunks.EMPTY, Collections.<String, List<Item>>emptyMap(), ItemNameIndex.EMPTY);
+    }
+
+    Builder edit(boolean recordChanges) {
+        return new Builder(this, recordChanges);
+    }
+
+    int getWarehouse() {
+        return warehouse;
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    ItemChunks getItems() {
+        return items;
+    }
+
+    /**
+     * The categories of this warehouse by their key, each under the name of one of its items
+     */
+    Map<String, String> getCategories() {
+        Map<String, String> categories = new HashMap<String, String>(itemsByCategory.size() * 2);
+        for (Map.Entry<String, List<Item>> entry : itemsByCategory.entrySet()) {
+            categories.put(entry.getKey(), entry.getValue().get(0).getCategory());
+        }
+        return categories;
+    }
+
+    /**
+     * The items of a category
+     *
+     * @param category the key of the category
+     * @return null if there are none
+     */
+    List<Item> getItemsByCategory(String category) {
+        return itemsByCategory.get(category);
+    }
+
+    int getItemCountByCategory(String category) {
+        List<Item> items = itemsByCategory.get(category);
+        return (items == null) ? 0 : items.size();
+    }
+
+    ItemNameIndex getNameIndex() {
+        return itemsByName;
+    }
+
+    /**
+     * Get the index of the items by date of stock
+     *
+     * @return
+     */
+    StockAgeIndex getAgeIndex() {
+        StockAgeIndex index = ageIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = ageIndex;
+                if (index == null) {
+                    index = StockAgeIndex.of(Collections.<Integer, List<Item>>singletonMap(warehouse, items), previousAgeIndex,
+                            (changesSincePrevious == null) ? null : changesSincePrevious.toList());
+                    previousAgeIndex = null;
+                    changesSincePrevious = null;
+                    ageIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The changes of one builder, linked to those of the builders before it
+     */
+    private static final class ChangeBatch {
+        final List<StockChange> changes;
+        final ChangeBatch previous;
+        final int size;
+
+        ChangeBatch(List<StockChange> changes, ChangeBatch previous) {
+            this.changes = changes;
+            this.previous = previous;
+            this.size = changes.size() + ((previous == null) ? 0 : previous.size);
+        }
+
+        List<StockChange> toList() {
+            List<List<StockChange>> batches = new ArrayList<List<StockChange>>();
+            for (ChangeBatch batch = this; batch != null; batch = batch.previous) {
+                batches.add(batch.changes);
+            }
+            List<StockChange> all = new ArrayList<StockChange>(size);
+            for (int i = batches.size() - 1; i >= 0; i--) {
+                all.addAll(batches.get(i));
+            }
+            return all;
+        }
+    }
+
+    /**
+     * Copy-on-write editor of a partition. The item list and each category bucket are copied at most once
+     * per builder, and of those only the chunks that change.
+     */
+    static final class Builder {
+        private final WarehouseStock base;
+        private ItemChunks.Editor items;
+        private final CopyOnWriteBuckets<String> itemsByCategory;
+        private final ItemNameIndex.Builder itemsByName;
+        // null if the changes are not recorded
+        private final List<StockChange> changes;
+        private boolean changed;
+
+        private Builder(WarehouseStock base, boolean recordChanges) {
+            this.base = base;
+            this.itemsByCategory = new CopyOnWriteBuckets<String>(base.itemsByCategory, HashMap::new);
+            this.itemsByName = base.itemsByName.edit();
+            this.changes = recordChanges ? new ArrayList<StockChange>() : null;
+        }
+
+        int size() {
+            return (items == null) ? base.size() : items.size();
+        }
+
+        void add(Item item) {
+            writable().add(item);
+            itemsByCategory.add(StockSnapshot.categoryKey(item.getCategory()), item);
+            itemsByName.add(item);
+            if (changes != null) changes.add(new StockChange(true, item));
+            changed = true;
+        }
+
+        /**
+         * Remove an item instance
+         *
+         * @param item
+         * @return whether the item was in the warehouse
+         */
+        boolean remove(Item item) {
+            if (size() == 0 || !writable().removeInstance(item)) return false;
+            itemsByCategory.remove(StockSnapshot.categoryKey(item.getCategory()), item);
+            itemsByName.remove(item);
+            if (changes != null) changes.add(new StockChange(false, item));
+            changed = true;
+            return true;
+        }
+
+        /**
+         * Remove many item instances at once, every bucket they are in is filtered a single time
+         *
+         * @param wanted the items to remove, those of other warehouses are ignored
+         * @return the removed items
+         */
+        List<Item> removeAll(Set<Item> wanted) {
+            List<Item> removed = new ArrayList<Item>();
+            if (size() == 0 || writable().removeAll(wanted, removed) == 0) return removed;
+
+            Set<Item> found = wanted;
+            if (removed.size() < wanted.size()) {
+                found = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>(removed.size() * 2));
+                found.addAll(removed);
+            }
+            Set<String> categories = new HashSet<String>();
+            for (Item item : removed) {
+                categories.add(StockSnapshot.categoryKey(item.getCategory()));
+                if (changes != null) changes.add(new StockChange(false, item));
+            }
+            for (String category : categories) {
+                itemsByCategory.removeAll(category, found, null);
+            }
+            itemsByName.removeAll(found);
+            changed = true;
+            return removed;
+        }
+
+        /**
+         * The items of a normalized name, as currently edited
+         *
+         * @return null if there are none
+         */
+        List<Item> itemsByName(String name) {
+            return itemsByName.items(name, base.warehouse);
+        }
+
+        WarehouseStock build() {
+            if (!changed) return base;
+            WarehouseStock partition = new WarehouseStock(base.warehouse, items.build(), itemsByCategory.result(), itemsByName.build());
+            synchronized (base) {
+                if (changes == null) {
+                    // without the changes, the warehouse is sorted again
+                    partition.previousAgeIndex = (base.ageIndex != null) ? base.ageIndex : base.previousAgeIndex;
+                } else if (base.ageIndex != null) {
+                    partition.previousAgeIndex = base.ageIndex;
+                    partition.changesSincePrevious = new ChangeBatch(changes, null);
+                } else if (base.previousAgeIndex != null) {
+                    partition.previousAgeIndex = base.previousAgeIndex;
+                    // once the changes have been dropped, the warehouse is sorted again
+                    if (base.changesSincePrevious != null) {
+                        partition.changesSincePrevious = new ChangeBatch(changes, base.changesSincePrevious);
+                    }
+                }
+            }
+            // past a quarter of the warehouse, sorting it again is as cheap as merging and the changes are not worth keeping
+            if (partition.changesSincePrevious != null
+                    && partition.changesSincePrevious.size > Math.max(MIN_MERGED_CHANGES, partition.size() / 4)) {
+                partition.changesSincePrevious = null;
+            }
+            return partition;
+        }
+
+        private ItemChunks.Editor writable() {
+            if (items == null) items = base.items.edit();
+            return items;
+        }
+    }
+}
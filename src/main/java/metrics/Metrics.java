@@ -0,0 +1,189 @@
+package main.java.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the application metrics: counters, timers with latency histograms and gauges.
+ * Recording is lock-free; a dump is available as text or JSON, through the "main.java.metrics:type=Metrics"
+ * MBean, and as a JSON file written at exit when the warehouse.metrics.file property names one.
+ * The warehouse.metrics property set to false turns recording off.
+ *
+ */
+public final class Metrics {
+
+    public static final String ENABLED_PROPERTY = "warehouse.metrics";
+    public static final String FILE_PROPERTY = "warehouse.metrics.file";
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<String, Timer>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<String, LongSupplier>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsReporter(), new ObjectName("main.java.metrics:type=Metrics"));
+        } catch (Exception e) {
+            // no JMX, the metrics are still available through the dumps
+        }
+        String file = System.getProperty(FILE_PROPERTY);
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    writeJson(new File(file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Get the counter of the given name, creating it on first use
+     *
+     * @param name
+     * @return
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Get the timer of the given name that times every call, creating it on first use
+     *
+     * @param name
+     * @return
+     */
+    public static Timer timer(String name) {
+        return timer(name, 1);
+    }
+
+    /**
+     * Get the timer of the given name, creating it on first use
+     *
+     * @param name
+     * @param samplePeriod time one in this many calls, a power of two
+     * @return
+     */
+    public static Timer timer(String name, int samplePeriod) {
+        return TIMERS.computeIfAbsent(name, key -> new Timer(samplePeriod));
+    }
+
+    /**
+     * Publish a value that is read when the metrics are dumped
+     *
+     * @param name
+     * @param value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * Reset all counters and timers
+     */
+    public static void reset() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+        for (Timer timer : TIMERS.values()) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Dump all metrics as text, one metric per line
+     *
+     * @return
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(TIMERS).entrySet()) {
+            Timer timer = entry.getValue();
+            LatencyHistogram histogram = timer.getHistogram();
+            text.append(String.format(Locale.ROOT, "timer   %-40s calls %10d  mean %10.1f us  p50 %10.1f us  p99 %10.1f us  max %10.1f us  total %10.1f ms",
+                    entry.getKey(), timer.getCalls(), timer.getMeanNanos() / 1e3,
+                    histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3, histogram.getMaximum() / 1e3,
+                    timer.getTotalNanos() / 1e6));
+            if (timer.getSamplePeriod() > 1) text.append("  (1/").append(timer.getSamplePeriod()).append(" sampled)");
+            text.append('\n');
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(COUNTERS).entrySet()) {
+            text.append(String.format(Locale.ROOT, "counter %-40s %d\n", entry.getKey(), entry.getValue().getCount()));
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<String, LongSupplier>(GAUGES).entrySet()) {
+            text.append(String.format(Locale.ROOT, "gauge   %-40s %d\n", entry.getKey(), entry.getValue().getAsLong()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Dump all metrics as a JSON object with "timers", "counters" and "gauges", durations in nanoseconds
+     *
+     * @return
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"timers\": {");
+        String separator = "";
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(TIMERS).entrySet()) {
+            Timer timer = entry.getValue();
+            LatencyHistogram histogram = timer.getHistogram();
+            json.append(separator).append(quote(entry.getKey())).append(": {")
+                    .append("\"calls\": ").append(timer.getCalls())
+                    .append(", \"samples\": ").append(timer.getSamples())
+                    .append(", \"sample_period\": ").append(timer.getSamplePeriod())
+                    .append(", \"mean\": ").append(Math.round(timer.getMeanNanos()))
+                    .append(", \"p50\": ").append(histogram.getPercentile(50))
+                    .append(", \"p90\": ").append(histogram.getPercentile(90))
+                    .append(", \"p99\": ").append(histogram.getPercentile(99))
+                    .append(", \"p999\": ").append(histogram.getPercentile(99.9))
+                    .append(", \"max\": ").append(histogram.getMaximum())
+                    .append(", \"total\": ").append(timer.getTotalNanos())
+                    .append('}');
+            separator = ", ";
+        }
+        json.append("}, \"counters\": {");
+        separator = "";
+        for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(COUNTERS).entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(": ").append(entry.getValue().getCount());
+            separator = ", ";
+        }
+        json.append("}, \"gauges\": {");
+        separator = "";
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<String, LongSupplier>(GAUGES).entrySet()) {
+            json.append(separator).append(quote(entry.getKey())).append(": ").append(entry.getValue().getAsLong());
+            separator = ", ";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Write the JSON dump to a file, replacing it in one step
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static void writeJson(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String quote(String name) {
+        return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -0,0 +1,31 @@
+package main.java.metrics;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The metrics MBean, see Metrics
+ *
+ */
+public class MetricsReporter implements MetricsReporterMBean {
+
+    @Override
+    public String getText() {
+        return Metrics.toText();
+    }
+
+    @Override
+    public String getJson() {
+        return Metrics.toJson();
+    }
+
+    @Override
+    public void writeJson(String path) throws IOException {
+        Metrics.writeJson(new File(path));
+    }
+
+    @Override
+    public void reset() {
+        Metrics.reset();
+    }
+}
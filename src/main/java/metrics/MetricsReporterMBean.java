@@ -0,0 +1,18 @@
+package main.java.metrics;
+
+import java.io.IOException;
+
+/**
+ * JMX view of the metrics
+ *
+ */
+public interface MetricsReporterMBean {
+
+    String getText();
+
+    String getJson();
+
+    void writeJson(String path) throws IOException;
+
+    void reset();
+}
@@ -0,0 +1,106 @@
+package main.java.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the duration of every n-th call of an operation in a histogram, and estimates the number of calls
+ * from the samples. An unsampled call costs one thread-local random number, so cheap operations can be
+ * measured without slowing them down:
+ * <pre>
+ * long start = TIMER.start();
+ * try {
+ *     ...
+ * } finally {
+ *     TIMER.stop(start);
+ * }
+ * </pre>
+ *
+ */
+public final class Timer {
+
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final int sampleMask;
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * @param samplePeriod a power of two, 1 to time every call
+     */
+    Timer(int samplePeriod) {
+        if (Integer.bitCount(samplePeriod) != 1) throw new IllegalArgumentException("Sample period must be a power of two: " + samplePeriod);
+        this.sampleMask = samplePeriod - 1;
+    }
+
+    /**
+     * Start timing a call if it is sampled
+     *
+     * @return the value to pass to stop()
+     */
+    public long start() {
+        if (!Metrics.ENABLED) return NOT_SAMPLED;
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) return NOT_SAMPLED;
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish timing a call
+     *
+     * @param start the value returned by start()
+     */
+    public void stop(long start) {
+        if (start == NOT_SAMPLED) return;
+        long nanos = System.nanoTime() - start;
+        samples.increment();
+        sampledNanos.add(nanos);
+        histogram.record(nanos);
+    }
+
+    /**
+     * Get the number of calls, estimated from the samples unless every call is timed
+     *
+     * @return
+     */
+    public long getCalls() {
+        return samples.sum() * (sampleMask + 1);
+    }
+
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    public int getSamplePeriod() {
+        return sampleMask + 1;
+    }
+
+    /**
+     * Get the mean duration of the sampled calls
+     *
+     * @return nanoseconds
+     */
+    public double getMeanNanos() {
+        long samples = this.samples.sum();
+        return (samples == 0) ? 0 : (double) sampledNanos.sum() / samples;
+    }
+
+    /**
+     * Get the estimated time spent in all calls
+     *
+     * @return nanoseconds
+     */
+    public long getTotalNanos() {
+        return (long) (getMeanNanos() * getCalls());
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    void reset() {
+        samples.reset();
+        sampledNanos.reset();
+        histogram.reset();
+    }
+}
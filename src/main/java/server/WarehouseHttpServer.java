@@ -0,0 +1,489 @@
+package main.java.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import main.java.data.ActionJournal;
+import main.java.data.ActionRecord;
+import main.java.data.DataFileWatcher;
+import main.java.data.Item;
+import main.java.data.ItemMatch;
+import main.java.data.ItemPage;
+import main.java.data.OrderService;
+import main.java.data.PersonnelRepository;
+import main.java.data.RepositoryBootstrap;
+import main.java.data.Reservation;
+import main.java.data.StockJsonReader;
+import main.java.data.StockSnapshot;
+import main.java.data.StockRepository;
+import main.java.metrics.Metrics;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP front-end for the warehouse, serving many operators from one JVM.
+ * It offers the operations of the CLI menu as JSON endpoints:
+ * <pre>
+ * GET  /warehouses                    item totals per warehouse
+ * GET  /warehouses/items?warehouse=1  items of a warehouse (offset and limit optional)
+ * GET  /search?name=Red GPS           availability of an item per warehouse, or similar items for a typo
+ * GET  /categories                    categories and their item counts
+ * GET  /categories/items?category=GPS items of a category (offset and limit optional)
+ * POST /login                         {"user_name": ..., "password": ...}, returns a session token
+ * POST /logout                        ends the session of "Authorization: Bearer token"
+ * POST /orders                        {"name": ..., "amount": ...} with "Authorization: Bearer token"
+ * GET  /metrics                      counters, timers and gauges of the hot paths
+ * </pre>
+ * Requests run on a virtual thread each when the JVM supports them, otherwise on a cached thread pool.
+ * Sessions expire after SESSION_TIMEOUT_MILLIS without a request and are then removed.
+ * Orders are recorded in the action journal like the orders of the CLI.
+ *
+ */
+@SuppressWarnings("unchecked")
+public class WarehouseHttpServer {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_SIMILAR_ITEMS = 5;
+    static final long SESSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long SESSION_SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // removes the expired sessions
+    private final ScheduledExecutorService sessionSweeper;
+    // session token to session
+    private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    // To record the orders in the durable action journal, null if it cannot be opened
+    private final ActionJournal journal = ActionJournal.getDefault();
+
+    /**
+     * A logged in user and when the session was last used
+     */
+    private static final class Session {
+        final String userName;
+        volatile long lastUsed;
+
+        Session(String userName, long now) {
+            this.userName = userName;
+            this.lastUsed = now;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastUsed > SESSION_TIMEOUT_MILLIS;
+        }
+    }
+
+    public WarehouseHttpServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        this.sessionSweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sessionSweeper.scheduleWithFixedDelay(this::removeExpiredSessions,
+                SESSION_SWEEP_MILLIS, SESSION_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        Metrics.gauge("http.sessions", sessions::size);
+
+        server.createContext("/warehouses", handler(this::warehouses));
+        server.createContext("/warehouses/items", handler(this::warehouseItems));
+        server.createContext("/search", handler(this::search));
+        server.createContext("/categories", handler(this::categories));
+        server.createContext("/categories/items", handler(this::categoryItems));
+        server.createContext("/login", handler(this::login));
+        server.createContext("/logout", handler(this::logout));
+        server.createContext("/orders", handler(this::orders));
+        server.createContext("/metrics", handler(this::metrics));
+    }
+
+    /**
+     * Start the server: WarehouseHttpServer [port] [--watch]
+     * With --watch, changes to the stock and personnel files are reloaded while the server runs.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        boolean watch = arguments.remove("--watch");
+        int port = !arguments.isEmpty() ? Integer.parseInt(arguments.get(0)) : 8080;
+        // requests arriving before the data is loaded wait for it
+        long start = System.nanoTime();
+        RepositoryBootstrap.start().thenRun(() -> System.out.printf("Stock and personnel loaded in %d ms\n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        if (watch) DataFileWatcher.start(System.out::println);
+        WarehouseHttpServer server = new WarehouseHttpServer(port);
+        server.start();
+        System.out.printf("Warehouse server listening on port %d\n", server.getPort());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        sessionSweeper.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * A virtual-thread-per-task executor where available (JDK 21+), a cached thread pool before that
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Endpoints
+    // =====================================================================================
+
+    private Response warehouses(Request request) {
+        StockSnapshot stock = StockRepository.snapshot();
+        JSONArray warehouses = new JSONArray();
+        for (int warehouse : new TreeSet<Integer>(stock.getWarehouses())) {
+            JSONObject entry = new JSONObject();
+            entry.put("warehouse", warehouse);
+            entry.put("total", stock.getItemCountByWarehouse(warehouse));
+            warehouses.add(entry);
+        }
+        JSONObject body = new JSONObject();
+        body.put("warehouses", warehouses);
+        body.put("total", stock.size());
+        return Response.ok(body);
+    }
+
+    private Response warehouseItems(Request request) {
+        int warehouse = request.intParameter("warehouse", -1);
+        if (warehouse < 0) return Response.error(400, "Parameter 'warehouse' is required");
+        return Response.ok(page(StockRepository.getItemsByWarehouse(warehouse), request));
+    }
+
+    private Response search(Request request) {
+        String name = request.parameter("name");
+        if (name == null || name.trim().isEmpty()) return Response.error(400, "Parameter 'name' is required");
+
+        JSONArray locations = new JSONArray();
+        int total = 0;
+        int maximum = 0;
+        int maximumWarehouse = 0;
+        for (Map.Entry<Integer, List<Item>> entry : StockRepository.getItemsByName(name).entrySet()) {
+            int amount = entry.getValue().size();
+            JSONObject location = new JSONObject();
+            location.put("warehouse", entry.getKey());
+            location.put("amount", amount);
+            locations.add(location);
+            total += amount;
+            if (amount > maximum) {
+                maximum = amount;
+                maximumWarehouse = entry.getKey();
+            }
+        }
+
+        JSONObject body = new JSONObject();
+        body.put("name", name);
+        body.put("amount", total);
+        body.put("locations", locations);
+        if (total > 0) {
+            JSONObject maximumAvailability = new JSONObject();
+            maximumAvailability.put("warehouse", maximumWarehouse);
+            maximumAvailability.put("amount", maximum);
+            body.put("maximum_availability", maximumAvailability);
+        } else {
+            JSONArray suggestions = new JSONArray();
+            suggestions.addAll(StockRepository.getItemNamesStartingWith(name));
+            body.put("suggestions", suggestions);
+
+            JSONArray similarItems = new JSONArray();
+            for (ItemMatch match : StockRepository.findSimilarItems(name, MAX_SIMILAR_ITEMS)) {
+                JSONArray warehouses = new JSONArray();
+                for (Map.Entry<Integer, Integer> entry : match.getAmountPerWarehouse().entrySet()) {
+                    JSONObject warehouse = new JSONObject();
+                    warehouse.put("warehouse", entry.getKey());
+                    warehouse.put("amount", entry.getValue());
+                    warehouses.add(warehouse);
+                }
+                JSONObject similarItem = new JSONObject();
+                similarItem.put("name", match.getName());
+                similarItem.put("similarity", match.getSimilarity());
+                similarItem.put("amount", match.getAmount());
+                similarItem.put("locations", warehouses);
+                similarItems.add(similarItem);
+            }
+            body.put("similar_items", similarItems);
+        }
+        return Response.ok(body);
+    }
+
+    private Response categories(Request request) {
+        StockSnapshot stock = StockRepository.snapshot();
+        JSONArray categories = new JSONArray();
+        for (String category : new TreeSet<String>(stock.getCategories())) {
+            JSONObject entry = new JSONObject();
+            entry.put("category", category);
+            entry.put("total", stock.getItemCountByCategory(category));
+            categories.add(entry);
+        }
+        JSONObject body = new JSONObject();
+        body.put("categories", categories);
+        return Response.ok(body);
+    }
+
+    private Response categoryItems(Request request) {
+        String category = request.parameter("category");
+        if (category == null) return Response.error(400, "Parameter 'category' is required");
+        return Response.ok(page(StockRepository.getItemsByCategory(category), request));
+    }
+
+    private Response login(Request request) {
+        if (!request.isPost()) return Response.error(405, "Use POST");
+        JSONObject credentials = request.jsonBody();
+        Object userName = credentials.get("user_name");
+        Object password = credentials.get("password");
+        if (userName == null || password == null) return Response.error(400, "user_name and password are required");
+        if (!PersonnelRepository.isUserValid(userName.toString(), password.toString())) {
+            return Response.error(401, "Invalid user name or password");
+        }
+
+        String token = UUID.randomUUID().toString();
+        sessions.put(token, new Session(userName.toString(), System.currentTimeMillis()));
+        JSONObject body = new JSONObject();
+        body.put("token", token);
+        return Response.ok(body);
+    }
+
+    private Response logout(Request request) {
+        if (!request.isPost()) return Response.error(405, "Use POST");
+        if (sessions.remove(request.bearerToken()) == null) return Response.error(401, "Not logged in");
+        return Response.ok(new JSONObject());
+    }
+
+    private Response orders(Request request) {
+        if (!request.isPost()) return Response.error(405, "Use POST");
+        Session session = session(request);
+        if (session == null) return Response.error(401, "You need to log in for this action");
+        String user = session.userName;
+
+        JSONObject order = request.jsonBody();
+        Object name = order.get("name");
+        Object amount = order.get("amount");
+        if (name == null || !(amount instanceof Number) || ((Number) amount).intValue() <= 0) {
+            return Response.error(400, "name and a positive amount are required");
+        }
+
+        Reservation reservation = OrderService.placeOrder(name.toString(), ((Number) amount).intValue());
+        if (reservation == null) return Response.error(409, "There are not this many available");
+
+        JSONArray warehouses = new JSONArray();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Integer> entry : reservation.getAmountPerWarehouse().entrySet()) {
+            JSONObject warehouse = new JSONObject();
+            warehouse.put("warehouse", entry.getKey());
+            warehouse.put("amount", entry.getValue());
+            warehouses.add(warehouse);
+            if (journal != null) {
+                journal.append(new ActionRecord(user, now, ActionRecord.Type.ORDERED,
+                        reservation.getItemName(), entry.getKey(), entry.getValue()));
+            }
+        }
+        JSONObject body = new JSONObject();
+        body.put("user_name", user);
+        body.put("name", reservation.getItemName());
+        body.put("amount", reservation.getAmount());
+        body.put("warehouses", warehouses);
+        return Response.ok(body);
+    }
+
+    private Response metrics(Request request) {
+        return Response.json(Metrics.toJson());
+    }
+
+    /**
+     * The live session of a request's bearer token, which counts as a use of it
+     *
+     * @return the session, or null if there is none or it has expired
+     */
+    private Session session(Request request) {
+        String token = request.bearerToken();
+        Session session = sessions.get(token);
+        if (session == null) return null;
+        long now = System.currentTimeMillis();
+        if (session.isExpired(now)) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    private void removeExpiredSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+
+    /**
+     * One page of items as JSON, selected by the offset and limit parameters
+     */
+    private static JSONObject page(List<Item> items, Request request) {
+        int offset = Math.max(0, request.intParameter("offset", 0));
+        int limit = Math.max(1, request.intParameter("limit", DEFAULT_LIMIT));
+        ItemPage page = ItemPage.of(items, offset, limit);
+
+        JSONArray pageItems = new JSONArray();
+        for (Item item : page) {
+            pageItems.add(toJson(item));
+        }
+        JSONObject body = new JSONObject();
+        body.put("total", page.getTotal());
+        body.put("offset", page.getOffset());
+        body.put("items", pageItems);
+        return body;
+    }
+
+    private static JSONObject toJson(Item item) {
+        JSONObject json = new JSONObject();
+        json.put("state", item.getState());
+        json.put("category", item.getCategory());
+        json.put("warehouse", item.getWarehouse());
+        // the repository only stocks dated items, but one missing date must not fail a whole listing
+        Date dateOfStock = item.getDateOfStock();
+        json.put("date_of_stock", (dateOfStock == null) ? null : StockJsonReader.DATE_FORMAT.format(
+                Instant.ofEpochMilli(dateOfStock.getTime()).atZone(ZoneId.systemDefault())));
+        return json;
+    }
+
+    // Plumbing
+    // =====================================================================================
+
+    private interface Endpoint {
+        Response handle(Request request) throws IOException;
+    }
+
+    private static HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            Response response;
+            try {
+                response = endpoint.handle(new Request(exchange));
+            } catch (IllegalArgumentException e) {
+                response = Response.error(400, e.getMessage());
+            } catch (RuntimeException e) {
+                response = Response.error(500, "Internal error");
+            }
+
+            byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        };
+    }
+
+    private static final class Request {
+        private final HttpExchange exchange;
+        private final Map<String, String> parameters;
+
+        Request(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        }
+
+        boolean isPost() {
+            return "POST".equalsIgnoreCase(exchange.getRequestMethod());
+        }
+
+        String parameter(String name) {
+            return parameters.get(name);
+        }
+
+        int intParameter(String name, int defaultValue) {
+            String value = parameters.get(name);
+            if (value == null) return defaultValue;
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Parameter '" + name + "' must be a number");
+            }
+        }
+
+        String bearerToken() {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")) return "";
+            return authorization.substring("Bearer ".length()).trim();
+        }
+
+        JSONObject jsonBody() {
+            Object body = JSONValue.parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            if (!(body instanceof JSONObject)) throw new IllegalArgumentException("Expected a JSON object");
+            return (JSONObject) body;
+        }
+
+        private static Map<String, String> parseQuery(String query) {
+            if (query == null || query.isEmpty()) return Collections.emptyMap();
+            Map<String, String> parameters = new HashMap<String, String>();
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                String key = (separator < 0) ? pair : pair.substring(0, separator);
+                String value = (separator < 0) ? "" : pair.substring(separator + 1);
+                parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return parameters;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response ok(JSONObject body) {
+            return new Response(200, body.toJSONString());
+        }
+
+        static Response json(String body) {
+            return new Response(200, body);
+        }
+
+        static Response error(int status, String message) {
+            JSONObject body = new JSONObject();
+            body.put("error", message);
+            return new Response(status, body.toJSONString());
+        }
+    }
+}
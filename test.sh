@@ -0,0 +1,18 @@
+#!/bin/sh
+# Compile the sources and the tests without the IDE project and run the JUnit tests.
+# JUnit 4 is taken from the local Maven repository, other locations can be given with
+#   JUNIT_JAR=/path/junit-4.13.2.jar HAMCREST_JAR=/path/hamcrest-core-1.3.jar ./test.sh
+set -e
+cd "$(dirname "$0")"
+
+M2="${M2_REPOSITORY:-$HOME/.m2/repository}"
+JUNIT_JAR="${JUNIT_JAR:-$M2/junit/junit/4.13.2/junit-4.13.2.jar}"
+HAMCREST_JAR="${HAMCREST_JAR:-$M2/org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar}"
+
+CLASSPATH="build/test-classes:lib/json-simple-1.1.1.jar:$JUNIT_JAR:$HAMCREST_JAR"
+rm -rf build/test-classes
+mkdir -p build/test-classes
+javac -d build/test-classes -cp "$CLASSPATH" $(find src/main/java test -name '*.java')
+
+TESTS=$(cd test && find . -name '*Test.java' | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g')
+exec java ${JAVA_OPTS:--Xmx2g} -Dwarehouse.persist=false -cp "$CLASSPATH" org.junit.runner.JUnitCore $TESTS
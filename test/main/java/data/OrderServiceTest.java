@@ -0,0 +1,171 @@
+package main.java.data;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Orders placed from many threads at once must never sell an item twice or more items than are in stock.
+ *
+ */
+public class OrderServiceTest {
+
+    private static final String NAME = "Vivid Anvil";
+    private static final String OTHER = "Dull Anvil";
+    private static final int WAREHOUSES = 5;
+    private static final int PER_WAREHOUSE = 100;
+    private static final int THREADS = 8;
+
+    private List<Item> stock;
+
+    @BeforeClass
+    public static void disablePersistence() {
+        // the tests must not write the change log of the real stock
+        System.setProperty(StockRepository.PERSIST_PROPERTY, "false");
+    }
+
+    @Before
+    public void setUp() {
+        stock = new ArrayList<Item>();
+        for (int warehouse = 1; warehouse <= WAREHOUSES; warehouse++) {
+            for (int i = 0; i < PER_WAREHOUSE; i++) {
+                stock.add(StockJsonReader.newItem("Vivid", "Anvil", warehouse, 1_500_000_000L + i * 3600L));
+                stock.add(StockJsonReader.newItem("Dull", "Anvil", warehouse, 1_500_000_000L + i * 3600L));
+            }
+        }
+        StockRepository.replaceAllItems(stock);
+    }
+
+    @Test
+    public void concurrentOrdersNeverOversell() throws InterruptedException {
+        Queue<Reservation> orders = new ConcurrentLinkedQueue<Reservation>();
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (true) {
+                Reservation order = OrderService.placeOrder(NAME, 1 + random.nextInt(7));
+                if (order == null) order = OrderService.placeOrder(NAME, 1);
+                if (order == null) return;
+                orders.add(order);
+            }
+        });
+
+        Set<Item> sold = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+        int amount = 0;
+        for (Reservation order : orders) {
+            assertEquals(Reservation.Status.COMMITTED, order.getStatus());
+            amount += order.getAmount();
+            for (Item item : order.getItems()) {
+                assertEquals("Vivid", item.getState());
+                assertTrue("item sold twice: " + item, sold.add(item));
+            }
+        }
+        assertEquals(WAREHOUSES * PER_WAREHOUSE, amount);
+        assertTrue(StockRepository.getItemsByName(NAME).isEmpty());
+        assertEquals(WAREHOUSES * PER_WAREHOUSE, count(StockRepository.getItemCountsByName(OTHER)));
+        assertEquals(stock.size() - amount, StockRepository.snapshot().size());
+    }
+
+    @Test
+    public void concurrentOrdersLargerThanTheStockAreRejected() throws InterruptedException {
+        // eight orders of 100 items compete for 500 items, so exactly five of them can be served
+        Queue<Reservation> orders = new ConcurrentLinkedQueue<Reservation>();
+        runConcurrently(() -> {
+            Reservation order = OrderService.placeOrder(NAME, PER_WAREHOUSE);
+            if (order != null) orders.add(order);
+        });
+
+        assertEquals(WAREHOUSES, orders.size());
+        Set<Item> sold = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+        for (Reservation order : orders) {
+            assertEquals(PER_WAREHOUSE, order.getAmount());
+            sold.addAll(order.getItems());
+        }
+        assertEquals(WAREHOUSES * PER_WAREHOUSE, sold.size());
+        assertNull(OrderService.placeOrder(NAME, 1));
+    }
+
+    @Test
+    public void cancelledOrdersReturnTheirItems() throws InterruptedException {
+        Queue<Reservation> committed = new ConcurrentLinkedQueue<Reservation>();
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 200; i++) {
+                Reservation order = OrderService.reserve(NAME, 1 + random.nextInt(3));
+                if (order == null) continue;
+                if (random.nextBoolean()) {
+                    order.cancel();
+                } else {
+                    order.commit();
+                    committed.add(order);
+                }
+            }
+        });
+
+        int sold = 0;
+        for (Reservation order : committed) {
+            sold += order.getAmount();
+            for (Item item : order.getItems()) {
+                assertFalse("sold item back in stock: " + item, StockRepository.snapshot().contains(item));
+            }
+        }
+        Map<Integer, List<Item>> left = StockRepository.getItemsByName(NAME);
+        Set<Item> distinct = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+        for (List<Item> items : left.values()) {
+            distinct.addAll(items);
+        }
+        assertEquals(WAREHOUSES * PER_WAREHOUSE - sold, distinct.size());
+        assertEquals(distinct.size(), count(StockRepository.getItemCountsByName(NAME)));
+        assertNotNull(OrderService.reserve(OTHER, WAREHOUSES * PER_WAREHOUSE));
+    }
+
+    /**
+     * Run the task on all threads, started at the same time, and rethrow the first failure
+     */
+    private static void runConcurrently(Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) throw new AssertionError(failures.peek());
+    }
+
+    private static int count(Map<Integer, Integer> counts) {
+        int count = 0;
+        for (int amount : counts.values()) {
+            count += amount;
+        }
+        return count;
+    }
+}
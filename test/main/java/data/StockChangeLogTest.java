@@ -0,0 +1,239 @@
+package main.java.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay of the change log after a crash at any point of writing and compacting, and its CRC'd records.
+ *
+ */
+public class StockChangeLogTest {
+
+    private static final long FLUSH_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+    private File snapshot;
+    private File changes;
+    private StockChangeLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        source = folder.newFile("stock.json");
+        Files.write(source.toPath(), "[]".getBytes(StandardCharsets.UTF_8));
+        snapshot = new File(folder.getRoot(), "stock.snapshot");
+        changes = new File(folder.getRoot(), "stock.changes");
+
+        List<Item> items = new ArrayList<Item>();
+        for (int warehouse = 1; warehouse <= 3; warehouse++) {
+            for (int i = 0; i < 20; i++) {
+                // every item has a twin, so a change replayed twice removes or adds one too many
+                items.add(StockJsonReader.newItem("Vivid", "Anvil", warehouse, 1_500_000_000L + (i / 2) * 60L));
+            }
+        }
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+    }
+
+    @After
+    public void tearDown() {
+        if (log != null) log.close();
+    }
+
+    @Test
+    public void replaysTheChangesAfterTheSnapshot() throws IOException {
+        StockSnapshot stock = open();
+        stock = change(stock, builder -> {
+            builder.add(StockJsonReader.newItem("Gr\u00fcn", "Kiste", 2, 1_600_000_000L));
+            builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L);
+        });
+        stock = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 3, 1_500_000_060L));
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        assertEquals(keys(stock), keys(open()));
+        assertEquals(3, log.getSequence());
+    }
+
+    @Test
+    public void replaySkipsRecordsCoveredByASnapshotWrittenBeforeTheCrash() throws IOException {
+        StockSnapshot stock = open();
+        stock = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L));
+        stock = change(stock, builder -> builder.add(StockJsonReader.newItem("Vivid", "Anvil", 2, 1_500_000_000L)));
+        StockSnapshot compacted = stock;
+        long compactedSequence = log.getSequence();
+        stock = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 2, 1_500_000_000L));
+        assertTrue(log.flush(FLUSH_MILLIS));
+
+        // compaction moved the new snapshot in place, then the process died before the log was cut
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(compacted.getAllItems()), source, compactedSequence);
+        log.close();
+        assertEquals(3, records().size());
+
+        assertEquals(keys(stock), keys(open()));
+        assertEquals(compactedSequence, log.getBaseSequence());
+        assertEquals(3, log.getSequence());
+    }
+
+    @Test
+    public void compactionWritesTheSnapshotAndDropsTheRecordsItCovers() throws IOException {
+        StockSnapshot stock = open();
+        stock = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L));
+        log.checkpoint(stock);
+        assertTrue(log.flush(FLUSH_MILLIS));
+        stock = change(stock, builder -> builder.add(StockJsonReader.newItem("Vivid", "Anvil", 3, 1_700_000_000L)));
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        assertEquals(2, StockSnapshotFile.open(snapshot).getChangeSequence());
+        assertEquals(Collections.singletonList(3L), sequences(records()));
+        assertEquals(keys(stock), keys(open()));
+    }
+
+    @Test
+    public void recordsRoundTrip() throws IOException {
+        StockSnapshot stock = open();
+        Item added = StockJsonReader.newItem("Gr\u00fcn", "Kiste \u00e9t\u00e9", 42, 1_650_000_123L);
+        change(stock, builder -> {
+            builder.add(added);
+            builder.removeMatching("Vivid", "Anvil", 3, 1_500_000_540L);
+        });
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        List<Object[]> records = records();
+        assertEquals(2, records.size());
+        assertArrayEquals(record(1L, (byte) 1, "Gr\u00fcn", "Kiste \u00e9t\u00e9", 42, 1_650_000_123L), records.get(0));
+        assertArrayEquals(record(2L, (byte) 2, "Vivid", "Anvil", 3, 1_500_000_540L), records.get(1));
+    }
+
+    @Test
+    public void replayStopsAtADamagedRecordAndCutsItOff() throws IOException {
+        StockSnapshot stock = open();
+        StockSnapshot first = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L));
+        change(first, builder -> builder.removeMatching("Vivid", "Anvil", 2, 1_500_000_000L));
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        long end = changes.length();
+        try (RandomAccessFile file = new RandomAccessFile(changes, "rw")) {
+            // flip a bit of the warehouse of the last record
+            long position = end - 4 - 2 - "Anvil".length() - 2 - "Vivid".length() - 8 - 1;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 1);
+        }
+        assertEquals(1, records().size());
+
+        assertEquals(keys(first), keys(open()));
+        assertEquals(1, log.getSequence());
+        log.close();
+        assertTrue(changes.length() < end);
+        assertEquals(1, records().size());
+    }
+
+    @Test
+    public void replayStopsAtAnIncompleteRecord() throws IOException {
+        StockSnapshot stock = open();
+        StockSnapshot first = change(stock, builder -> builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L));
+        change(first, builder -> builder.removeMatching("Vivid", "Anvil", 2, 1_500_000_000L));
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        // the write of the last record was interrupted
+        try (RandomAccessFile file = new RandomAccessFile(changes, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertEquals(keys(first), keys(open()));
+    }
+
+    @Test
+    public void logOfAnotherStockFileIsDiscarded() throws IOException {
+        StockSnapshot original = open();
+        change(original, builder -> builder.removeMatching("Vivid", "Anvil", 1, 1_500_000_000L));
+        assertTrue(log.flush(FLUSH_MILLIS));
+        log.close();
+
+        Files.write(source.toPath(), "[ ]".getBytes(StandardCharsets.UTF_8));
+        log = StockChangeLog.open(changes, snapshot, source, StockChangeLog.DEFAULT_COMPACT_THRESHOLD);
+        assertEquals(0, log.getBaseSequence());
+        assertEquals(keys(original), keys(log.replay(original)));
+        assertTrue(records().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void onlyOneLogCanBeOpen() throws IOException {
+        open();
+        StockChangeLog.open(changes, snapshot, source, StockChangeLog.DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * Open the log and replay it onto the stock of the snapshot, like the repository does on startup
+     */
+    private StockSnapshot open() throws IOException {
+        log = StockChangeLog.open(changes, snapshot, source, StockChangeLog.DEFAULT_COMPACT_THRESHOLD);
+        return log.replay(StockSnapshot.of(StockSnapshotFile.open(snapshot).readItems()));
+    }
+
+    /**
+     * Change the stock and hand the changes to the log, like a repository update
+     */
+    private StockSnapshot change(StockSnapshot stock, Consumer<StockSnapshot.Builder> edit) {
+        StockSnapshot.Builder builder = stock.edit();
+        edit.accept(builder);
+        StockSnapshot changed = builder.build();
+        log.stockChanged(changed, builder.changes());
+        return changed;
+    }
+
+    private List<Object[]> records() throws IOException {
+        List<Object[]> records = new ArrayList<Object[]>();
+        StockChangeLog.read(changes, (sequence, operation, state, category, warehouse, epochSecond) ->
+                records.add(record(sequence, operation, state, category, warehouse, epochSecond)));
+        return records;
+    }
+
+    private static Object[] record(long sequence, byte operation, String state, String category, int warehouse, long epochSecond) {
+        return new Object[]{sequence, operation, state, category, warehouse, epochSecond};
+    }
+
+    private static List<Long> sequences(List<Object[]> records) {
+        List<Long> sequences = new ArrayList<Long>();
+        for (Object[] record : records) {
+            sequences.add((Long) record[0]);
+        }
+        return sequences;
+    }
+
+    /**
+     * The items of a stock in a comparable form, sorted
+     */
+    private static List<String> keys(StockSnapshot stock) {
+        List<String> keys = new ArrayList<String>();
+        for (Item item : stock.getAllItems()) {
+            keys.add(item.getState() + "|" + item.getCategory() + "|" + item.getWarehouse() + "|" + item.getDateOfStock().getTime());
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,228 @@
+package main.java.data;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Concurrent writes to the repository and readers working on consistent snapshots meanwhile.
+ *
+ */
+public class StockRepositoryTest {
+
+    private static final int WAREHOUSES = 6;
+    private static final int PER_WAREHOUSE = 200;
+    private static final int THREADS = 8;
+
+    private List<Item> stock;
+
+    @BeforeClass
+    public static void disablePersistence() {
+        // the tests must not write the change log of the real stock
+        System.setProperty(StockRepository.PERSIST_PROPERTY, "false");
+    }
+
+    @Before
+    public void setUp() {
+        stock = new ArrayList<Item>();
+        for (int warehouse = 1; warehouse <= WAREHOUSES; warehouse++) {
+            for (int i = 0; i < PER_WAREHOUSE; i++) {
+                stock.add(StockJsonReader.newItem((i % 2 == 0) ? "Vivid" : "Dull", "Anvil", warehouse, 1_500_000_000L + i * 60L));
+            }
+        }
+        StockRepository.replaceAllItems(stock);
+    }
+
+    @Test
+    public void concurrentWritesKeepEveryIndexConsistent() throws InterruptedException {
+        AtomicInteger expected = new AtomicInteger(stock.size());
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<Item> own = new ArrayList<Item>();
+            for (int i = 0; i < 300; i++) {
+                int warehouse = 1 + random.nextInt(WAREHOUSES);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        Item item = StockJsonReader.newItem("Thread" + thread, "Anvil", warehouse, 1_600_000_000L + i);
+                        StockRepository.addItem(item);
+                        own.add(item);
+                        expected.incrementAndGet();
+                        break;
+                    case 1:
+                        if (!own.isEmpty() && StockRepository.removeItem(own.remove(random.nextInt(own.size())))) {
+                            expected.decrementAndGet();
+                        }
+                        break;
+                    default:
+                        if (own.isEmpty()) break;
+                        int index = random.nextInt(own.size());
+                        Item transferred = StockRepository.transferItem(own.get(index), warehouse);
+                        if (transferred != null) own.set(index, transferred);
+                }
+            }
+        });
+
+        StockSnapshot snapshot = StockRepository.snapshot();
+        List<Item> all = snapshot.getAllItems();
+        assertEquals(expected.get(), snapshot.size());
+        assertEquals(expected.get(), all.size());
+        Set<Item> distinct = Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+        distinct.addAll(all);
+        assertEquals(all.size(), distinct.size());
+
+        Map<Integer, Integer> byWarehouse = new HashMap<Integer, Integer>();
+        Map<String, Integer> byName = new HashMap<String, Integer>();
+        for (Item item : all) {
+            byWarehouse.merge(item.getWarehouse(), 1, Integer::sum);
+            byName.merge(item.getState() + " " + item.getCategory(), 1, Integer::sum);
+        }
+        for (Map.Entry<Integer, Integer> warehouse : byWarehouse.entrySet()) {
+            assertEquals(warehouse.getValue().intValue(), snapshot.getItemCountByWarehouse(warehouse.getKey()));
+            for (Item item : snapshot.getItemsByWarehouse(warehouse.getKey())) {
+                assertEquals(warehouse.getKey().intValue(), item.getWarehouse());
+            }
+        }
+        for (Map.Entry<String, Integer> name : byName.entrySet()) {
+            assertEquals(name.getValue().intValue(), count(snapshot.getItemCountsByName(name.getKey())));
+        }
+        assertEquals(all.size(), snapshot.getItemCountByCategory("Anvil"));
+        assertEquals(all.size(), snapshot.getAgeIndex().countStockedBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readersSeeEveryTransferCompleteOrNotAtAll() throws InterruptedException {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Queue<String> inconsistencies = new ConcurrentLinkedQueue<String>();
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                StockSnapshot snapshot = StockRepository.snapshot();
+                int total = 0;
+                for (int warehouse : snapshot.getWarehouses()) {
+                    total += snapshot.getItemCountByWarehouse(warehouse);
+                }
+                int vivid = count(snapshot.getItemCountsByName("Vivid Anvil"));
+                if (total != stock.size() || vivid != stock.size() / 2) {
+                    inconsistencies.add(total + " items, " + vivid + " Vivid Anvil");
+                }
+            }
+        });
+        reader.start();
+
+        try {
+            runConcurrently(thread -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 200; i++) {
+                    List<Item> items = StockRepository.getItemsByWarehouse(1 + random.nextInt(WAREHOUSES));
+                    if (items.isEmpty()) continue;
+                    StockRepository.transferItem(items.get(random.nextInt(items.size())), 1 + random.nextInt(WAREHOUSES));
+                }
+            });
+        } finally {
+            writing.set(false);
+            reader.join();
+        }
+        assertTrue(inconsistencies.toString(), inconsistencies.isEmpty());
+    }
+
+    @Test
+    public void snapshotStaysTheSameWhileTheStockChanges() throws InterruptedException {
+        StockSnapshot snapshot = StockRepository.snapshot();
+        List<Item> before = new ArrayList<Item>(snapshot.getAllItems());
+
+        runConcurrently(thread -> {
+            for (Item item : snapshot.getItemsByWarehouse(1 + thread % WAREHOUSES)) {
+                StockRepository.removeItem(item);
+            }
+        });
+
+        assertEquals(0, StockRepository.snapshot().size());
+        assertEquals(before.size(), snapshot.size());
+        List<Item> after = snapshot.getAllItems();
+        for (int i = 0; i < before.size(); i++) {
+            assertSame(before.get(i), after.get(i));
+        }
+        for (Item item : before) {
+            assertTrue(snapshot.contains(item));
+        }
+    }
+
+    @Test
+    public void changeScopedToWarehousesCannotTouchOthers() {
+        Item item = StockJsonReader.newItem("Vivid", "Anvil", 2, 1_700_000_000L);
+        try {
+            StockRepository.update(Collections.singleton(1), builder -> {
+                builder.add(item);
+                return null;
+            });
+            fail("change of warehouse 2 accepted in a change of warehouse 1");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(StockRepository.snapshot().contains(item));
+        assertEquals(stock.size(), StockRepository.snapshot().size());
+        assertNull(StockRepository.transferItem(item, 3));
+    }
+
+    /**
+     * Receives the number of the thread it runs on
+     */
+    private interface Task {
+        void run(int thread);
+    }
+
+    /**
+     * Run the task on all threads, started at the same time, and rethrow the first failure
+     */
+    private static void runConcurrently(Task task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            int number = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    task.run(number);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) throw new AssertionError(failures.peek());
+    }
+
+    private static int count(Map<Integer, Integer> counts) {
+        int count = 0;
+        for (int amount : counts.values()) {
+            count += amount;
+        }
+        return count;
+    }
+}
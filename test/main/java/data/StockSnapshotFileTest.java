@@ -0,0 +1,127 @@
+package main.java.data;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The snapshot header ties a snapshot to the version of the stock file it was written from.
+ *
+ */
+public class StockSnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+    private File snapshot;
+    private List<Item> items;
+
+    @Before
+    public void setUp() throws IOException {
+        source = folder.newFile("stock.json");
+        Files.write(source.toPath(), "[]".getBytes(StandardCharsets.UTF_8));
+        snapshot = new File(folder.getRoot(), "stock.snapshot");
+        items = new ArrayList<Item>();
+        items.add(StockJsonReader.newItem("Vivid", "Anvil", 1, 1_500_000_000L));
+        items.add(StockJsonReader.newItem("Dull", "Anvil", 2, 1_500_003_600L));
+        items.add(StockJsonReader.newItem("Vivid", "Hammer", 2, 1_600_000_000L));
+    }
+
+    @Test
+    public void snapshotOfTheCurrentStockFileIsFresh() throws IOException {
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source, 17);
+        assertTrue(StockSnapshotFile.isFresh(snapshot, source));
+
+        StockSnapshotFile file = StockSnapshotFile.open(snapshot);
+        assertEquals(17, file.getChangeSequence());
+        assertEquals(items.size(), file.size());
+        List<Item> read = file.readItems();
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getState(), read.get(i).getState());
+            assertEquals(items.get(i).getCategory(), read.get(i).getCategory());
+            assertEquals(items.get(i).getWarehouse(), read.get(i).getWarehouse());
+            assertEquals(items.get(i).getDateOfStock(), read.get(i).getDateOfStock());
+        }
+    }
+
+    @Test
+    public void snapshotIsStaleWhenTheStockFileChangesSize() throws IOException {
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        long modified = source.lastModified();
+        Files.write(source.toPath(), "[ ]".getBytes(StandardCharsets.UTF_8));
+        assertTrue(source.setLastModified(modified));
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+    }
+
+    @Test
+    public void snapshotIsStaleWhenTheStockFileIsModified() throws IOException {
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        // same length, only the modification time tells the versions apart
+        Files.write(source.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(source.setLastModified(source.lastModified() + 2000L));
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+    }
+
+    @Test
+    public void snapshotWithoutItsStockFileIsStale() throws IOException {
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        assertTrue(source.delete());
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+    }
+
+    @Test
+    public void missingOrTruncatedSnapshotIsStale() throws IOException {
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(20);
+        }
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+    }
+
+    @Test
+    public void otherFileIsNotASnapshot() throws IOException {
+        Files.write(snapshot.toPath(), new byte[64]);
+        assertFalse(StockSnapshotFile.isFresh(snapshot, source));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRecordsAreRejected() throws IOException {
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        // the header is intact, so only opening the snapshot finds the damage
+        assertTrue(StockSnapshotFile.isFresh(snapshot, source));
+        StockSnapshotFile.open(snapshot);
+    }
+
+    @Test
+    public void staleSnapshotIsReplacedFromTheStockFile() throws IOException {
+        Files.write(source.toPath(), ("[{\"state\":\"Vivid\",\"category\":\"Anvil\",\"warehouse\":3,"
+                + "\"date_of_stock\":\"2017-07-14 02:40:00\"}]").getBytes(StandardCharsets.UTF_8));
+        StockSnapshotFile.write(snapshot, ColumnarStockStore.of(items), source);
+        assertTrue(source.setLastModified(source.lastModified() + 2000L));
+
+        List<Item> loaded = StockRepository.loadItems(source, snapshot);
+        assertEquals(1, loaded.size());
+        assertEquals(3, loaded.get(0).getWarehouse());
+        assertTrue(StockSnapshotFile.isFresh(snapshot, source));
+        assertEquals(1, StockSnapshotFile.open(snapshot).size());
+    }
+}